@@ -0,0 +1,40 @@
+package dk.cinema.controller;
+
+import dk.cinema.service.HallFixtures;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialisering af /api/cinema uden HTTP-laget.
+ *
+ * Kør med: mvn -Pjmh verify -DskipTests -Djmh.args="CinemaStateBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CinemaStateBenchmark {
+
+    @Param({"10x13", "40x60", "200x250"})
+    public String hall;
+
+    @Param({"0.3", "0.9"})
+    public double fill;
+
+    private BookingController controller;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        controller = new BookingController(HallFixtures.filledService(hall, fill, 42));
+    }
+
+    @Benchmark
+    public int renderCinemaState() {
+        JsonWriter json = JsonWriter.get();
+        controller.renderCinemaState(json);
+        return json.size();
+    }
+}
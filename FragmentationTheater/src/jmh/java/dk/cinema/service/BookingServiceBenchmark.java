@@ -0,0 +1,123 @@
+package dk.cinema.service;
+
+import dk.cinema.model.BookingRequest;
+import dk.cinema.model.CinemaHall;
+import dk.cinema.model.FreeRuns;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot paths i BookingService målt på sale fra 10x13 til stadionstørrelse og ved
+ * forskellige belægninger.
+ *
+ * Kør med: mvn -Pjmh verify -DskipTests -Djmh.args="BookingServiceBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BookingServiceBenchmark {
+
+    @Param({"10x13", "40x60", "200x250"})
+    public String hall;
+
+    @Param({"0.3", "0.7", "0.9"})
+    public double fill;
+
+    private BookingService service;
+    private BookingRequest acceptRequest;
+    private BookingRequest rejectRequest;
+    private int rejectedRow;
+    private int rejectedSeat;
+    private int checkRow;
+    private int checkFrom;
+    private long[] checkWords;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        service = HallFixtures.filledService(hall, fill, 42);
+        CinemaHall cinemaHall = service.getCinemaHall();
+
+        // Accept: to sæder forrest i en ledig sekvens der efterlader mindst to ledige.
+        // Reject: ét sæde på anden plads i en ledig sekvens, så det første bliver isoleret.
+        for (int r = 0; r < cinemaHall.getRows(); r++) {
+            FreeRuns runs = cinemaHall.getFreeRuns(r);
+            for (int i = 0; i < runs.getCount(); i++) {
+                if (acceptRequest == null && runs.getLength(i) >= 4 && runs.getIsolatedSeats() == 0) {
+                    acceptRequest = new BookingRequest(HallFixtures.seatIds(r, runs.getStart(i), 2), "Bench");
+                }
+                if (rejectRequest == null && runs.getLength(i) >= 3) {
+                    rejectRequest = new BookingRequest(HallFixtures.seatIds(r, runs.getStart(i) + 1, 1), "Bench");
+                    rejectedRow = r;
+                    rejectedSeat = runs.getStart(i) + 1;
+                    checkRow = r;
+                    checkFrom = runs.getStart(i) + 1;
+                }
+            }
+        }
+        if (acceptRequest == null || rejectRequest == null) {
+            throw new IllegalStateException("Salen " + hall + " ved " + fill + " har ingen egnede ledige sekvenser");
+        }
+        checkWords = cinemaHall.newRowBuffer();
+        cinemaHall.readRow(checkRow, checkWords);
+    }
+
+    @Benchmark
+    public boolean bookSeatsAcceptAndCancel() {
+        return service.cancelBooking(service.bookSeats(acceptRequest).getBookingId());
+    }
+
+    @Benchmark
+    public Object bookSeatsReject() {
+        return service.bookSeats(rejectRequest).getReason();
+    }
+
+    @Benchmark
+    public boolean wouldCreateFragmentation() {
+        return service.wouldCreateFragmentation(checkRow, checkWords, checkFrom, checkFrom + 1, null) > 0;
+    }
+
+    @Benchmark
+    public List<String> getSuggestedAlternatives() {
+        return service.getSuggestedAlternatives(rejectedRow, rejectedSeat, 1);
+    }
+
+    @Benchmark
+    public List<String> availableSeatsParty1() {
+        return service.getAvailableSeatsForBooking(1);
+    }
+
+    @Benchmark
+    public List<String> availableSeatsParty4() {
+        return service.getAvailableSeatsForBooking(4);
+    }
+
+    @Benchmark
+    public List<String> availableSeatsParty8() {
+        return service.getAvailableSeatsForBooking(8);
+    }
+
+    @Benchmark
+    public int[] availableSeatCodesParty4() {
+        return service.getAvailableSeatCodes(4);
+    }
+
+    /**
+     * En booking og en annullering ændrer én række, så cachen beregner kun den igen.
+     * Sammenlign med bookSeatsAcceptAndCancel.
+     */
+    @Benchmark
+    public int[] availableSeatCodesAfterChange() {
+        service.cancelBooking(service.bookSeats(acceptRequest).getBookingId());
+        return service.getAvailableSeatCodes(4);
+    }
+
+    @Benchmark
+    public double calculateFragmentation() {
+        return service.calculateFragmentation();
+    }
+}
@@ -0,0 +1,46 @@
+package dk.cinema.service;
+
+import dk.cinema.model.BookingRequest;
+import dk.cinema.model.CinemaHall;
+
+import java.util.*;
+
+/**
+ * Sale til benchmarks, fyldt med tilfældige lovlige bookinger op til en given belægning.
+ */
+public final class HallFixtures {
+    private HallFixtures() {}
+
+    /**
+     * @param hall "rækkerxsæder", fx "10x13"
+     * @param fill ønsket andel optagne sæder; nås ikke altid helt, da reglerne afviser nogle bookinger.
+     *             Sidste række fyldes kun til halvt, så der altid findes ledige sekvenser at måle på.
+     */
+    public static BookingService filledService(String hall, double fill, long seed) {
+        String[] dims = hall.split("x");
+        int rows = Integer.parseInt(dims[0]);
+        int seatsPerRow = Integer.parseInt(dims[1]);
+        BookingService service = new BookingService(rows, seatsPerRow);
+        CinemaHall cinemaHall = service.getCinemaHall();
+
+        Random random = new Random(seed);
+        int target = (int) (cinemaHall.getTotalSeats() * fill);
+        int attempts = cinemaHall.getTotalSeats() * 20;
+        while (cinemaHall.getOccupiedSeats() < target && attempts-- > 0) {
+            int size = 1 + random.nextInt(Math.min(6, seatsPerRow));
+            int row = random.nextInt(rows);
+            int start = random.nextInt(seatsPerRow - size + 1);
+            if (row == rows - 1 && rows > 1 && start + size > seatsPerRow / 2) continue;
+            service.bookSeats(new BookingRequest(seatIds(row, start, size), "Fixture"));
+        }
+        return service;
+    }
+
+    public static List<String> seatIds(int row, int start, int size) {
+        List<String> ids = new ArrayList<>(size);
+        for (int s = start; s < start + size; s++) {
+            ids.add(row + "-" + s);
+        }
+        return ids;
+    }
+}
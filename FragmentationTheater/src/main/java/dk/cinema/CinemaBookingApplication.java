@@ -1,69 +1,111 @@
 package dk.cinema;
 
-import com.sun.net.httpserver.HttpExchange;
-import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 import dk.cinema.controller.BookingController;
-import dk.cinema.service.BookingService;
+import dk.cinema.controller.HttpMetrics;
+import dk.cinema.controller.MetricsController;
+import dk.cinema.controller.ShowController;
+import dk.cinema.controller.StaticFileHandler;
+import dk.cinema.model.VenueLayout;
+import dk.cinema.service.ShowRegistry;
 
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.InetSocketAddress;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class CinemaBookingApplication {
-    public static void main(String[] args) throws IOException {
-        HttpServer server = HttpServer.create(new InetSocketAddress(8080), 0);
-
-        server.createContext("/", new StaticFileHandler("web"));
-
-        BookingService bookingService = new BookingService();
-        BookingController controller = new BookingController(bookingService);
-
-        server.createContext("/api/cinema", controller::handleCinemaState);
-        server.createContext("/api/book", controller::handleBooking);
-        server.createContext("/api/reset", controller::handleReset);
-        server.createContext("/api/stats", controller::handleStats);
-        server.createContext("/api/available-seats", controller::handleAvailableSeats);
-        server.createContext("/api/config", controller::handleConfig);
-
-        server.setExecutor(null);
-        server.start();
-
-        System.out.println("Cinema Booking API + Frontend running on http://localhost:8080");
-    }
+    private static final String DEFAULT_SHOW = "default";
+    private static final long HOLD_SWEEP_MILLIS = 100;
+    private static final long SNAPSHOT_INTERVAL_SECONDS = 60;
+    private static final int EVENT_PUSHER_THREADS = 4;
 
-    static class StaticFileHandler implements HttpHandler {
-        private final Path baseDir;
-
-        StaticFileHandler(String baseDir) {
-            this.baseDir = Path.of(baseDir).toAbsolutePath();
+    public static void main(String[] args) throws IOException {
+        ServerConfig config;
+        ExecutorService executor;
+        VenueLayout layout;
+        try {
+            config = ServerConfig.parse(args);
+            layout = config.getLayoutFile() == null
+                    ? VenueLayout.rectangular(10, 13)
+                    : VenueLayout.load(config.getLayoutFile());
+            executor = config.createExecutor();
+        } catch (IllegalArgumentException | IllegalStateException | IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
         }
 
-        @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            String filePath = exchange.getRequestURI().getPath();
-            if (filePath.equals("/")) filePath = "/index.html";
-
-            Path file = baseDir.resolve("." + filePath).normalize();
-
-            if (!file.startsWith(baseDir) || !Files.exists(file)) {
-                exchange.sendResponseHeaders(404, 0);
-                exchange.getResponseBody().close();
-                return;
+        HttpServer server = HttpServer.create(new InetSocketAddress(config.getPort()), config.getBacklog());
+
+        server.createContext("/", new StaticFileHandler("web", config.isWatchStatic()));
+
+        ShowRegistry registry = new ShowRegistry(config.getDataDir());
+        registry.createShow(DEFAULT_SHOW, "Standardforestilling", layout);
+        registry.restoreShows();
+        BookingController controller = new BookingController(registry.getService(DEFAULT_SHOW));
+        ScheduledExecutorService eventScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "event-dispatch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ExecutorService eventPushers = Executors.newFixedThreadPool(EVENT_PUSHER_THREADS, r -> {
+            Thread thread = new Thread(r, "event-push");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ShowController showController = new ShowController(registry, eventScheduler, eventPushers);
+
+        HttpMetrics httpMetrics = new HttpMetrics();
+        httpMetrics.instrument(server.createContext("/api/cinema", controller::handleCinemaState), "cinema");
+        httpMetrics.instrument(server.createContext("/api/book", controller::handleBooking), "book");
+        httpMetrics.instrument(server.createContext("/api/book/batch", controller::handleBatchBooking), "book/batch");
+        httpMetrics.instrument(server.createContext("/api/book/best", controller::handleBestBooking), "book/best");
+        httpMetrics.instrument(server.createContext("/api/reset", controller::handleReset), "reset");
+        httpMetrics.instrument(server.createContext("/api/stats", controller::handleStats), "stats");
+        httpMetrics.instrument(server.createContext("/api/available-seats", controller::handleAvailableSeats), "available-seats");
+        httpMetrics.instrument(server.createContext("/api/config", controller::handleConfig), "config");
+        httpMetrics.instrument(server.createContext("/api/hold", controller::handleHold), "hold");
+        httpMetrics.instrument(server.createContext("/api/events",
+                exchange -> showController.eventStream(DEFAULT_SHOW).handle(exchange)), "events");
+        httpMetrics.instrument(server.createContext("/api/shows", showController::handle), ShowController::endpointOf);
+        server.createContext("/api/metrics", new MetricsController(registry, httpMetrics)::handle);
+
+        ScheduledExecutorService holdSweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "hold-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        holdSweeper.scheduleAtFixedRate(registry::expireHolds,
+                HOLD_SWEEP_MILLIS, HOLD_SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+
+        ScheduledExecutorService snapshotWriter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotWriter.scheduleWithFixedDelay(() -> {
+            try {
+                registry.writeSnapshots();
+            } catch (IOException e) {
+                System.err.println("Kunne ikke skrive snapshot: " + e.getMessage());
             }
+        }, SNAPSHOT_INTERVAL_SECONDS, SNAPSHOT_INTERVAL_SECONDS, TimeUnit.SECONDS);
 
-            String mimeType = Files.probeContentType(file);
-            if (mimeType == null) mimeType = "application/octet-stream";
-            exchange.getResponseHeaders().set("Content-Type", mimeType);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                registry.close();
+            } catch (IOException e) {
+                System.err.println("Kunne ikke lukke journalerne: " + e.getMessage());
+            }
+        }));
 
-            byte[] data = Files.readAllBytes(file);
-            exchange.sendResponseHeaders(200, data.length);
+        server.setExecutor(executor);
+        server.start();
 
-            try (OutputStream os = exchange.getResponseBody()) {
-                os.write(data);
-            }
-        }
+        System.out.println("Cinema Booking API + Frontend running on http://localhost:" + config.getPort());
+        System.out.println("Konfiguration: " + config);
     }
 }
@@ -0,0 +1,138 @@
+package dk.cinema;
+
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serverens indstillinger. Læses fra kommandolinjen som --navn=værdi; en indstilling der
+ * ikke er givet, tages fra systemegenskaben cinema.navn og ellers fra standardværdien.
+ *
+ * --port=8080, --backlog=0, --executor=pool|virtual|single, --threads=N, --queue=N,
+ * --data-dir=data, --watch-static=false, --layout=venues/arena.txt
+ *
+ * Uden --layout er standardforestillingens sal 10 rækker med 13 sæder.
+ */
+public class ServerConfig {
+    public enum ExecutorMode { POOL, VIRTUAL, SINGLE }
+
+    private int port = 8080;
+    private int backlog = 0;
+    private ExecutorMode executorMode = ExecutorMode.POOL;
+    private int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private int queueCapacity = 1024;
+    private Path dataDir = Path.of("data");
+    private boolean watchStatic = false;
+    private Path layoutFile;
+
+    public static ServerConfig parse(String[] args) {
+        ServerConfig config = new ServerConfig();
+        for (String name : new String[] {"port", "backlog", "executor", "threads", "queue", "data-dir", "watch-static", "layout"}) {
+            String value = System.getProperty("cinema." + name);
+            if (value == null && name.equals("data-dir")) value = System.getProperty("cinema.dataDir");
+            if (value != null) config.set(name, value);
+        }
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Ukendt argument: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                config.set(arg.substring(2, eq), arg.substring(eq + 1));
+            } else if (i + 1 < args.length) {
+                config.set(arg.substring(2), args[++i]);
+            } else {
+                throw new IllegalArgumentException("Mangler værdi for " + arg);
+            }
+        }
+        return config;
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "port": port = parseInt(name, value, 0); break;
+            case "backlog": backlog = parseInt(name, value, 0); break;
+            case "threads": threads = parseInt(name, value, 1); break;
+            case "queue": queueCapacity = parseInt(name, value, 1); break;
+            case "data-dir": dataDir = Path.of(value); break;
+            case "watch-static": watchStatic = Boolean.parseBoolean(value); break;
+            case "layout": layoutFile = Path.of(value); break;
+            case "executor":
+                try {
+                    executorMode = ExecutorMode.valueOf(value.toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Ukendt executor: " + value);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Ukendt indstilling: --" + name);
+        }
+    }
+
+    private static int parseInt(String name, String value, int min) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed >= min) return parsed;
+        } catch (NumberFormatException e) {
+            // falder igennem til fejlen nedenfor
+        }
+        throw new IllegalArgumentException("Ugyldig værdi for --" + name + ": " + value);
+    }
+
+    public int getPort() { return port; }
+    public int getBacklog() { return backlog; }
+    public ExecutorMode getExecutorMode() { return executorMode; }
+    public int getThreads() { return threads; }
+    public int getQueueCapacity() { return queueCapacity; }
+    public Path getDataDir() { return dataDir; }
+    public boolean isWatchStatic() { return watchStatic; }
+    public Path getLayoutFile() { return layoutFile; }
+
+    /**
+     * Opretter executoren til HttpServer. POOL er en fast pulje med en begrænset kø; når
+     * køen er fuld, kører dispatcher-tråden selv requesten, så accept bremses i stedet for
+     * at hukommelsen løber fuld. VIRTUAL kræver Java 21 og giver én virtuel tråd pr. request.
+     * SINGLE svarer til den oprindelige opførsel med én tråd til alt.
+     */
+    public ExecutorService createExecutor() {
+        switch (executorMode) {
+            case VIRTUAL:
+                return newVirtualThreadExecutor();
+            case SINGLE:
+                return Executors.newSingleThreadExecutor(namedThreads("http"));
+            default:
+                return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(queueCapacity), namedThreads("http"),
+                        new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+    }
+
+    /**
+     * Slås op via reflection, så projektet stadig kan bygges og køres på Java 17.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("--executor=virtual kræver Java 21 eller nyere", e);
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> new Thread(r, prefix + "-" + counter.incrementAndGet());
+    }
+
+    @Override
+    public String toString() {
+        return "port=" + port + ", backlog=" + backlog + ", executor=" + executorMode.name().toLowerCase()
+                + (executorMode == ExecutorMode.POOL ? ", threads=" + threads + ", queue=" + queueCapacity : "")
+                + ", dataDir=" + dataDir + (layoutFile != null ? ", layout=" + layoutFile : "");
+    }
+}
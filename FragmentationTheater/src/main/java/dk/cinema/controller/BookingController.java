@@ -2,18 +2,46 @@ package dk.cinema.controller;
 
 import com.sun.net.httpserver.HttpExchange;
 import dk.cinema.model.*;
+import dk.cinema.service.BookingResult;
 import dk.cinema.service.BookingService;
+import dk.cinema.service.RejectReason;
 import org.json.*;
 
 import java.io.*;
+import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * HTTP-endpoints for én sal. Svar skrives med JsonWriter direkte i en genbrugt buffer;
+ * org.json bruges kun til at læse request-bodies.
+ *
+ * GET-endpoints sender et ETag ud fra salens version. Matcher If-None-Match, svares
+ * der 304 før noget beregnes eller serialiseres. Salens tilstand bruger sæde- og
+ * holdversionen, så afviste bookinger ikke gør klienternes kopi forældet.
+ *
+ * Svarene fra available-seats gemmes som færdige bytes pr. gruppestørrelse og format
+ * sammen med den sædeversion de blev lavet ved, så gentagne spørgsmål til en uændret sal
+ * sendes uden at blive beregnet eller serialiseret igen.
+ */
 public class BookingController {
+    private static final long DEFAULT_HOLD_SECONDS = 600;
+
     private final BookingService bookingService;
+    private final String[] seatIds;
+    private final AtomicReferenceArray<CachedBody> availableSeatsBodies;
 
     public BookingController(BookingService bookingService) {
         this.bookingService = bookingService;
+        CinemaHall hall = bookingService.getCinemaHall();
+        this.availableSeatsBodies = new AtomicReferenceArray<>((hall.getSeatsPerRow() + 1) * 2);
+        this.seatIds = new String[hall.getGridSize()];
+        for (int r = 0; r < hall.getRows(); r++) {
+            for (int s = 0; s < hall.getSeatsPerRow(); s++) {
+                seatIds[r * hall.getSeatsPerRow() + s] = r + "-" + s;
+            }
+        }
     }
 
     public void handleCinemaState(HttpExchange exchange) throws IOException {
@@ -25,25 +53,45 @@ public class BookingController {
         }
 
         CinemaHall hall = bookingService.getCinemaHall();
-        JSONObject response = new JSONObject();
-        JSONArray rows = new JSONArray();
+        if (notModified(exchange, "\"v" + hall.getSeatVersion() + "-" + hall.getHoldVersion() + "\"")) return;
+
+        JsonWriter json = JsonWriter.get();
+        renderCinemaState(json);
+        json.send(exchange, 200);
+    }
+
+    /**
+     * Salens pladser række for række. Pladser der ikke er sæder, får "kind": "aisle",
+     * "blocked" eller for kørestolspladser "wheelchair".
+     */
+    void renderCinemaState(JsonWriter json) {
+        CinemaHall hall = bookingService.getCinemaHall();
+        VenueLayout layout = hall.getLayout();
+        boolean rectangular = layout.isRectangular();
+        long[] occupancy = bookingService.snapshotOccupancy();
+        int wordsPerRow = hall.getWordsPerRow();
+        int seatsPerRow = hall.getSeatsPerRow();
 
+        json.beginObject().name("rows").beginArray();
         for (int r = 0; r < hall.getRows(); r++) {
-            JSONArray row = new JSONArray();
-            for (int s = 0; s < hall.getSeatsPerRow(); s++) {
-                Seat seat = hall.getSeat(r, s);
-                JSONObject seatJson = new JSONObject();
-                seatJson.put("id", seat.getId());
-                seatJson.put("row", seat.getRow());
-                seatJson.put("number", seat.getNumber());
-                seatJson.put("occupied", seat.isOccupied());
-                row.put(seatJson);
+            json.beginArray();
+            for (int s = 0; s < seatsPerRow; s++) {
+                json.beginObject()
+                        .name("id").value(seatIds[r * seatsPerRow + s])
+                        .name("row").value(r)
+                        .name("number").value(s)
+                        .name("occupied").value((occupancy[r * wordsPerRow + (s >>> 6)] & (1L << s)) != 0)
+                        .name("held").value(hall.isHeld(r, s));
+                if (!rectangular) {
+                    String kind = layout.isAisle(r, s) ? "aisle" : !layout.isSeat(r, s) ? "blocked"
+                            : layout.isWheelchair(r, s) ? "wheelchair" : null;
+                    if (kind != null) json.name("kind").value(kind);
+                }
+                json.endObject();
             }
-            rows.put(row);
+            json.endArray();
         }
-
-        response.put("rows", rows);
-        sendJsonResponse(exchange, 200, response.toString());
+        json.endArray().endObject();
     }
 
     public void handleBooking(HttpExchange exchange) throws IOException {
@@ -54,6 +102,11 @@ public class BookingController {
             return;
         }
 
+        if ("DELETE".equals(exchange.getRequestMethod())) {
+            handleCancel(exchange);
+            return;
+        }
+
         if (!"POST".equals(exchange.getRequestMethod())) {
             sendJsonResponse(exchange, 405, "{\"error\":\"Method not allowed\"}");
             return;
@@ -63,13 +116,212 @@ public class BookingController {
         JSONObject json = new JSONObject(body);
 
         BookingRequest request = new BookingRequest();
-        request.setSeatIds(jsonArrayToList(json.getJSONArray("seatIds")));
+        readSeats(json, request);
         request.setCustomerName(json.optString("customerName", "Guest"));
 
-        Map<String, Object> result = bookingService.bookSeats(request);
-        JSONObject response = new JSONObject(result);
+        JsonWriter out = JsonWriter.get();
+        writeResult(out, bookingService.bookSeats(request));
+        out.send(exchange, 200);
+    }
+
+    private void handleCancel(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String bookingId = path.substring(path.lastIndexOf("/book") + "/book".length());
+        if (bookingId.length() < 2) {
+            sendJsonResponse(exchange, 400, "{\"error\":\"Missing booking id\"}");
+            return;
+        }
+
+        boolean cancelled;
+        try {
+            cancelled = bookingService.cancelBooking(bookingId.substring(1));
+        } catch (UncheckedIOException e) {
+            sendJsonResponse(exchange, 503, "{\"error\":\"Journal unavailable\"}");
+            return;
+        }
+        JsonWriter.get().beginObject().name("success").value(cancelled).endObject()
+                .send(exchange, cancelled ? 200 : 404);
+    }
+
+    public void handleBatchBooking(HttpExchange exchange) throws IOException {
+        setCorsHeaders(exchange);
+
+        if ("OPTIONS".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            sendJsonResponse(exchange, 405, "{\"error\":\"Method not allowed\"}");
+            return;
+        }
+
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        JSONArray items = new JSONObject(body).getJSONArray("requests");
+
+        List<BookingRequest> requests = new ArrayList<>(items.length());
+        for (int i = 0; i < items.length(); i++) {
+            JSONObject item = items.getJSONObject(i);
+            BookingRequest request = new BookingRequest();
+            readSeats(item, request);
+            request.setCustomerName(item.optString("customerName", "Guest"));
+            requests.add(request);
+        }
+
+        List<BookingResult> results = bookingService.bookSeatsBatch(requests);
 
-        sendJsonResponse(exchange, 200, response.toString());
+        int successCount = 0;
+        JsonWriter json = JsonWriter.get();
+        json.beginObject().name("results").beginArray();
+        for (BookingResult result : results) {
+            if (result.isSuccess()) successCount++;
+            writeResult(json, result);
+        }
+        json.endArray().name("successCount").value(successCount).endObject();
+        json.send(exchange, 200);
+    }
+
+    /**
+     * POST .../book/best?partySize=N vælger og booker de bedste ledige sæder til selskabet.
+     * Med row=R foretrækkes række R (0-baseret) frem for salens midte.
+     */
+    public void handleBestBooking(HttpExchange exchange) throws IOException {
+        setCorsHeaders(exchange);
+
+        if ("OPTIONS".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            sendJsonResponse(exchange, 405, "{\"error\":\"Method not allowed\"}");
+            return;
+        }
+
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        int partySize;
+        int preferredRow = BookingService.NO_ROW_PREFERENCE;
+        try {
+            partySize = Integer.parseInt(query.getOrDefault("partySize", ""));
+            if (query.containsKey("row")) preferredRow = Integer.parseInt(query.get("row"));
+        } catch (NumberFormatException e) {
+            sendJsonResponse(exchange, 400, "{\"error\":\"partySize and row must be numbers\"}");
+            return;
+        }
+        if (partySize < 1 || partySize > bookingService.getCinemaHall().getSeatsPerRow()) {
+            sendJsonResponse(exchange, 400, "{\"error\":\"partySize must be between 1 and seatsPerRow\"}");
+            return;
+        }
+
+        JsonWriter out = JsonWriter.get();
+        writeResult(out, bookingService.allocateBest(partySize, preferredRow));
+        out.send(exchange, 200);
+    }
+
+    /**
+     * POST .../hold opretter et hold, POST .../hold/{id}/confirm bekræfter det og
+     * DELETE .../hold/{id} frigiver det.
+     */
+    public void handleHold(HttpExchange exchange) throws IOException {
+        setCorsHeaders(exchange);
+
+        if ("OPTIONS".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+
+        String path = exchange.getRequestURI().getPath();
+        String rest = path.substring(path.lastIndexOf("/hold") + "/hold".length());
+        String method = exchange.getRequestMethod();
+
+        if (rest.isEmpty() && "POST".equals(method)) {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            JSONObject json = new JSONObject(body);
+
+            BookingRequest request = new BookingRequest();
+            readSeats(json, request);
+            request.setCustomerName(json.optString("customerName", "Guest"));
+            long ttlSeconds = json.optLong("ttlSeconds", DEFAULT_HOLD_SECONDS);
+            if (ttlSeconds <= 0) {
+                sendJsonResponse(exchange, 400, "{\"error\":\"ttlSeconds must be positive\"}");
+                return;
+            }
+
+            JsonWriter out = JsonWriter.get();
+            writeResult(out, bookingService.holdSeats(request, ttlSeconds * 1000));
+            out.send(exchange, 200);
+            return;
+        }
+
+        if (rest.endsWith("/confirm") && "POST".equals(method)) {
+            String holdId = rest.substring(1, rest.length() - "/confirm".length());
+            BookingResult result = bookingService.confirmHold(holdId);
+            JsonWriter out = JsonWriter.get();
+            writeResult(out, result);
+            out.send(exchange, result.isSuccess() ? 200 : confirmFailureStatus(result.getReason()));
+            return;
+        }
+
+        if (rest.length() > 1 && "DELETE".equals(method)) {
+            boolean released = bookingService.releaseHold(rest.substring(1));
+            JsonWriter.get().beginObject().name("success").value(released).endObject()
+                    .send(exchange, released ? 200 : 404);
+            return;
+        }
+
+        sendJsonResponse(exchange, 405, "{\"error\":\"Method not allowed\"}");
+    }
+
+    /**
+     * Status for et hold der ikke kunne bekræftes: 404 hvis det ikke findes, 410 hvis det er
+     * udløbet, 503 hvis journalen ikke kan skrives og ellers 409.
+     */
+    private static int confirmFailureStatus(RejectReason reason) {
+        switch (reason) {
+            case HOLD_NOT_FOUND: return 404;
+            case HOLD_EXPIRED: return 410;
+            case JOURNAL_UNAVAILABLE: return 503;
+            default: return 409;
+        }
+    }
+
+    /**
+     * Skriver et bookingresultat. Beskeder og forslag bygges først her. Ved succes kommer de
+     * bookede eller holdte sæder med som seatIds.
+     */
+    void writeResult(JsonWriter json, BookingResult result) {
+        json.beginObject().name("success").value(result.isSuccess());
+        if (result.isHold()) {
+            json.name("holdId").value(result.getHoldId())
+                    .name("expiresAt").value(result.getExpiresAt());
+        } else if (result.isSuccess()) {
+            json.name("bookingId").value(result.getBookingId());
+        }
+        if (result.isSuccess()) {
+            SeatBlock block = result.getBlock();
+            int code = bookingService.getCinemaHall().seatCode(block.getRow(), block.getStart());
+            json.name("seatIds").beginArray();
+            for (int i = 0; i < block.getLength(); i++) {
+                json.value(seatIds[code + i]);
+            }
+            json.endArray();
+        }
+        json.name("message").value(result.getMessage());
+
+        if (!result.isSuccess()) {
+            json.name("reason").value(result.getReason().name());
+            if (result.getReason() == RejectReason.FRAGMENTATION_PREVENTION) {
+                json.name("isolatedSeats").value(result.getIsolatedSeats())
+                        .name("suggestions").value(result.getSuggestions());
+            }
+        }
+
+        if (result.hasFragmentation()) {
+            json.name("fragmentationBefore").value(result.getFragmentationBefore())
+                    .name("fragmentationAfter").value(result.getFragmentationAfter())
+                    .name("fragmentationIncrease").value(result.getFragmentationIncrease());
+        }
+        json.endObject();
     }
 
     public void handleReset(HttpExchange exchange) throws IOException {
@@ -80,7 +332,12 @@ public class BookingController {
             return;
         }
 
-        bookingService.reset();
+        try {
+            bookingService.reset();
+        } catch (UncheckedIOException e) {
+            sendJsonResponse(exchange, 503, "{\"error\":\"Journal unavailable\"}");
+            return;
+        }
         sendJsonResponse(exchange, 200, "{\"success\":true,\"message\":\"Cinema reset\"}");
     }
 
@@ -92,9 +349,10 @@ public class BookingController {
             return;
         }
 
+        if (notModified(exchange, "\"s" + bookingService.getVersion() + "\"")) return;
+
         Map<String, Object> stats = bookingService.getStatistics();
-        JSONObject response = new JSONObject(stats);
-        sendJsonResponse(exchange, 200, response.toString());
+        JsonWriter.get().value(stats).send(exchange, 200);
     }
 
     public void handleAvailableSeats(HttpExchange exchange) throws IOException {
@@ -105,24 +363,41 @@ public class BookingController {
             return;
         }
 
-        String query = exchange.getRequestURI().getQuery();
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
         int partySize = 1;
-
-        if (query != null && query.startsWith("partySize=")) {
-            try {
-                partySize = Integer.parseInt(query.substring(10));
-            } catch (NumberFormatException e) {
-                partySize = 1;
-            }
+        try {
+            partySize = Integer.parseInt(query.getOrDefault("partySize", "1"));
+        } catch (NumberFormatException e) {
+            partySize = 1;
         }
+        boolean codes = "codes".equals(query.get("format"));
+
+        long seatVersion = bookingService.getSeatVersion();
+        String etag = "\"a" + seatVersion + "-" + partySize + (codes ? "c" : "") + "\"";
+        if (notModified(exchange, etag)) return;
 
-        List<String> availableSeats = bookingService.getAvailableSeatsForBooking(partySize);
+        sendJsonResponse(exchange, 200, availableSeatsBody(partySize, codes, seatVersion));
+    }
 
-        JSONObject response = new JSONObject();
-        response.put("partySize", partySize);
-        response.put("availableSeats", new JSONArray(availableSeats));
+    private byte[] availableSeatsBody(int partySize, boolean codes, long seatVersion) {
+        boolean cacheable = partySize >= 1 && partySize <= bookingService.getCinemaHall().getSeatsPerRow();
+        int slot = partySize * 2 + (codes ? 1 : 0);
+        if (cacheable) {
+            CachedBody cached = availableSeatsBodies.get(slot);
+            if (cached != null && cached.seatVersion == seatVersion) return cached.bytes;
+        }
 
-        sendJsonResponse(exchange, 200, response.toString());
+        JsonWriter json = JsonWriter.get();
+        json.beginObject().name("partySize").value(partySize).name("availableSeats").beginArray();
+        for (int code : bookingService.getAvailableSeatCodes(partySize)) {
+            if (codes) json.value(code);
+            else json.value(seatIds[code]);
+        }
+        json.endArray().endObject();
+
+        byte[] bytes = json.toByteArray();
+        if (cacheable) availableSeatsBodies.set(slot, new CachedBody(seatVersion, bytes));
+        return bytes;
     }
 
     public void handleConfig(HttpExchange exchange) throws IOException {
@@ -134,34 +409,115 @@ public class BookingController {
         }
 
         CinemaHall hall = bookingService.getCinemaHall();
-        JSONObject response = new JSONObject();
-        response.put("rows", hall.getRows());
-        response.put("seatsPerRow", hall.getSeatsPerRow());
-        response.put("totalSeats", hall.getRows() * hall.getSeatsPerRow());
+        if (notModified(exchange, "\"c" + hall.getRows() + "x" + hall.getSeatsPerRow() + "\"")) return;
+
+        JsonWriter json = JsonWriter.get();
+        json.beginObject()
+                .name("rows").value(hall.getRows())
+                .name("seatsPerRow").value(hall.getSeatsPerRow())
+                .name("totalSeats").value(hall.getTotalSeats());
+        VenueLayout layout = hall.getLayout();
+        if (!layout.isRectangular()) {
+            json.name("venue").value(layout.getName()).name("sections").beginArray();
+            for (VenueLayout.Section section : layout.getSections()) {
+                json.beginObject()
+                        .name("name").value(section.getName())
+                        .name("firstRow").value(section.getFirstRow())
+                        .name("rows").value(section.getRowCount())
+                        .name("seats").value(section.getSeatCount())
+                        .endObject();
+            }
+            json.endArray();
+        }
+        json.endObject().send(exchange, 200);
+    }
 
-        sendJsonResponse(exchange, 200, response.toString());
+    /**
+     * Sætter ETag og svarer 304 hvis klienten allerede har denne version.
+     */
+    static boolean notModified(HttpExchange exchange, String etag) throws IOException {
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals(etag) || tag.equals("*")) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return true;
+            }
+        }
+        return false;
     }
 
-    private void setCorsHeaders(HttpExchange exchange) {
+    static void setCorsHeaders(HttpExchange exchange) {
         exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
-        exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
-        exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type");
+        exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "GET, POST, DELETE, OPTIONS");
+        exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type, If-None-Match");
+        exchange.getResponseHeaders().add("Access-Control-Expose-Headers", "ETag");
     }
 
-    private void sendJsonResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
+    static void sendJsonResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
+        sendJsonResponse(exchange, statusCode, response.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static void sendJsonResponse(HttpExchange exchange, int statusCode, byte[] bytes) throws IOException {
         exchange.getResponseHeaders().set("Content-Type", "application/json");
-        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
         exchange.sendResponseHeaders(statusCode, bytes.length);
         try (OutputStream os = exchange.getResponseBody()) {
             os.write(bytes);
         }
     }
 
-    private List<String> jsonArrayToList(JSONArray array) {
+    /**
+     * Sæder kan angives som "seats" med sædekoder (række * seatsPerRow + nummer) eller som
+     * "seatIds" med "række-nummer"-strenge.
+     */
+    private static void readSeats(JSONObject json, BookingRequest request) {
+        JSONArray seats = json.optJSONArray("seats");
+        if (seats == null) {
+            request.setSeatIds(jsonArrayToList(json.optJSONArray("seatIds")));
+            return;
+        }
+        int[] codes = new int[seats.length()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = seats.getInt(i);
+        }
+        request.setSeatCodes(codes);
+    }
+
+    static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) return params;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private static List<String> jsonArrayToList(JSONArray array) {
         List<String> list = new ArrayList<>();
+        if (array == null) return list;
         for (int i = 0; i < array.length(); i++) {
             list.add(array.getString(i));
         }
         return list;
     }
+
+    private static final class CachedBody {
+        final long seatVersion;
+        final byte[] bytes;
+
+        CachedBody(long seatVersion, byte[] bytes) {
+            this.seatVersion = seatVersion;
+            this.bytes = bytes;
+        }
+    }
 }
@@ -0,0 +1,174 @@
+package dk.cinema.controller;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import dk.cinema.metrics.Histogram;
+import dk.cinema.metrics.PrometheusWriter;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Måler varighed, statuskoder og request-/svarstørrelser for hvert endpoint via et filter
+ * på HttpContext. Størrelserne tælles på de bytes der faktisk læses og skrives, så
+ * chunked svar også kommer med. For SSE måles kun frem til strømmen er åbnet.
+ *
+ * Metoden kommer fra klienten; andre metoder end de kendte samles under OTHER, så
+ * klienter ikke kan oprette nye tidsserier.
+ */
+public class HttpMetrics {
+    private static final Set<String> METHODS = Set.of("GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "PATCH");
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    /**
+     * Måler alle requests til context under navnet endpoint.
+     */
+    public HttpContext instrument(HttpContext context, String endpoint) {
+        return instrument(context, exchange -> endpoint);
+    }
+
+    /**
+     * Måler alle requests til context under det navn endpointOf giver for requesten, så
+     * fx forestillings-id'er i stien ikke giver et nyt endpoint hver.
+     */
+    public HttpContext instrument(HttpContext context, Function<HttpExchange, String> endpointOf) {
+        context.getFilters().add(new Filter() {
+            @Override
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                long start = System.nanoTime();
+                CountingInputStream in = new CountingInputStream(exchange.getRequestBody());
+                CountingOutputStream out = new CountingOutputStream(exchange.getResponseBody());
+                exchange.setStreams(in, out);
+                try {
+                    chain.doFilter(exchange);
+                } finally {
+                    Endpoint endpoint = endpoint(endpointOf.apply(exchange), methodOf(exchange.getRequestMethod()));
+                    endpoint.latency.record(System.nanoTime() - start);
+                    endpoint.requestBytes.record(in.count);
+                    endpoint.responseBytes.record(out.count);
+                    endpoint.status(exchange.getResponseCode()).increment();
+                }
+            }
+
+            @Override
+            public String description() {
+                return "metrics";
+            }
+        });
+        return context;
+    }
+
+    private static String methodOf(String method) {
+        return METHODS.contains(method) ? method : "OTHER";
+    }
+
+    private Endpoint endpoint(String name, String method) {
+        String key = name + ' ' + method;
+        Endpoint endpoint = endpoints.get(key);
+        return endpoint != null ? endpoint : endpoints.computeIfAbsent(key, k -> new Endpoint(name, method));
+    }
+
+    public void writeTo(PrometheusWriter out) {
+        Map<String, Endpoint> sorted = new TreeMap<>(endpoints);
+
+        out.family("cinema_http_requests_total", "counter", "HTTP-requests pr. endpoint, metode og status.");
+        for (Endpoint endpoint : sorted.values()) {
+            for (Map.Entry<Integer, LongAdder> status : new TreeMap<>(endpoint.statuses).entrySet()) {
+                out.sample("cinema_http_requests_total", PrometheusWriter.labels("endpoint", endpoint.name,
+                        "method", endpoint.method, "status", String.valueOf(status.getKey())), status.getValue().sum());
+            }
+        }
+
+        out.family("cinema_http_request_duration_seconds", "histogram", "Tid i handleren pr. endpoint.");
+        for (Endpoint endpoint : sorted.values()) {
+            out.histogram("cinema_http_request_duration_seconds", endpoint.labels(), endpoint.latency,
+                    PrometheusWriter.NANOS_PER_SECOND);
+        }
+
+        out.family("cinema_http_request_size_bytes", "histogram", "Størrelse af request-bodies.");
+        for (Endpoint endpoint : sorted.values()) {
+            out.histogram("cinema_http_request_size_bytes", endpoint.labels(), endpoint.requestBytes, 1);
+        }
+
+        out.family("cinema_http_response_size_bytes", "histogram", "Størrelse af svar-bodies.");
+        for (Endpoint endpoint : sorted.values()) {
+            out.histogram("cinema_http_response_size_bytes", endpoint.labels(), endpoint.responseBytes, 1);
+        }
+    }
+
+    private static final class Endpoint {
+        final String name;
+        final String method;
+        final Histogram latency = Histogram.latency();
+        final Histogram requestBytes = Histogram.size();
+        final Histogram responseBytes = Histogram.size();
+        final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+        Endpoint(String name, String method) {
+            this.name = name;
+            this.method = method;
+        }
+
+        LongAdder status(int code) {
+            LongAdder counter = statuses.get(code);
+            return counter != null ? counter : statuses.computeIfAbsent(code, c -> new LongAdder());
+        }
+
+        String labels() {
+            return PrometheusWriter.labels("endpoint", name, "method", method);
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
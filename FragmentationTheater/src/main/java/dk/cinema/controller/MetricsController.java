@@ -0,0 +1,110 @@
+package dk.cinema.controller;
+
+import com.sun.net.httpserver.HttpExchange;
+import dk.cinema.metrics.PrometheusWriter;
+import dk.cinema.model.CinemaHall;
+import dk.cinema.model.Show;
+import dk.cinema.service.BookingMetrics;
+import dk.cinema.service.BookingService;
+import dk.cinema.service.RejectReason;
+import dk.cinema.service.ShowRegistry;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * /api/metrics i Prometheus' tekstformat: HTTP-målinger pr. endpoint og booking-, låse- og
+ * salsmålinger pr. forestilling med labelen show.
+ */
+public class MetricsController {
+    private final ShowRegistry registry;
+    private final HttpMetrics httpMetrics;
+
+    public MetricsController(ShowRegistry registry, HttpMetrics httpMetrics) {
+        this.registry = registry;
+        this.httpMetrics = httpMetrics;
+    }
+
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(405, -1);
+            exchange.close();
+            return;
+        }
+
+        PrometheusWriter out = new PrometheusWriter();
+        httpMetrics.writeTo(out);
+        writeShows(out, registry.getShows());
+
+        byte[] body = out.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", PrometheusWriter.CONTENT_TYPE);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private void writeShows(PrometheusWriter out, List<Show> shows) {
+        out.family("cinema_bookings_accepted_total", "counter", "Gennemførte bookinger.");
+        for (Show show : shows) {
+            out.sample("cinema_bookings_accepted_total", labels(show), metrics(show).getAccepted());
+        }
+
+        out.family("cinema_bookings_rejected_total", "counter", "Afviste bookinger pr. årsag.");
+        for (Show show : shows) {
+            for (Map.Entry<RejectReason, Long> rejection : metrics(show).getRejections().entrySet()) {
+                out.sample("cinema_bookings_rejected_total",
+                        PrometheusWriter.labels("show", show.getId(), "reason", rejection.getKey().name()),
+                        rejection.getValue());
+            }
+        }
+
+        out.family("cinema_booking_cas_retries_total", "counter", "Bookinger der måtte validere igen fordi rækken blev ændret.");
+        for (Show show : shows) {
+            out.sample("cinema_booking_cas_retries_total", labels(show), metrics(show).getCasRetries());
+        }
+
+        out.family("cinema_booking_critical_section_seconds", "histogram", "Tid til validering og commit af en booking.");
+        for (Show show : shows) {
+            out.histogram("cinema_booking_critical_section_seconds", labels(show),
+                    metrics(show).getCriticalSection(), PrometheusWriter.NANOS_PER_SECOND);
+        }
+
+        out.family("cinema_row_lock_acquisitions_total", "counter", "Erhvervelser af rækkelåse.");
+        for (Show show : shows) {
+            out.sample("cinema_row_lock_acquisitions_total", labels(show), metrics(show).getLockAcquisitions());
+        }
+
+        out.family("cinema_row_lock_wait_seconds", "histogram", "Ventetid på rækkelåse der var optaget.");
+        for (Show show : shows) {
+            out.histogram("cinema_row_lock_wait_seconds", labels(show),
+                    metrics(show).getLockWait(), PrometheusWriter.NANOS_PER_SECOND);
+        }
+
+        out.family("cinema_seats", "gauge", "Sæder pr. tilstand.");
+        for (Show show : shows) {
+            CinemaHall hall = registry.getService(show.getId()).getCinemaHall();
+            int held = hall.getHeldSeats();
+            out.sample("cinema_seats", PrometheusWriter.labels("show", show.getId(), "state", "free"), hall.getFreeSeats());
+            out.sample("cinema_seats", PrometheusWriter.labels("show", show.getId(), "state", "booked"), hall.getOccupiedSeats() - held);
+            out.sample("cinema_seats", PrometheusWriter.labels("show", show.getId(), "state", "held"), held);
+        }
+
+        out.family("cinema_fragmentation_percent", "gauge", "Andel af ledige sæder der er isolerede.");
+        for (Show show : shows) {
+            out.sample("cinema_fragmentation_percent", labels(show), registry.getService(show.getId()).calculateFragmentation());
+        }
+    }
+
+    private BookingMetrics metrics(Show show) {
+        BookingService service = registry.getService(show.getId());
+        return service.getMetrics();
+    }
+
+    private static String labels(Show show) {
+        return PrometheusWriter.labels("show", show.getId());
+    }
+}
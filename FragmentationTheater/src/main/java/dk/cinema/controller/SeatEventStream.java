@@ -0,0 +1,412 @@
+package dk.cinema.controller;
+
+import com.sun.net.httpserver.HttpExchange;
+import dk.cinema.model.CinemaHall;
+import dk.cinema.service.BookingService;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Server-Sent Events for én sal.
+ *
+ * Salen melder hvilke rækker der er ændret; bookingtråden sætter kun en bit og går videre.
+ * Efter et kort vindue fordeles de ændrede rækker til alle abonnenter, og hver abonnent
+ * sender forskellen mellem salens nuværende tilstand og det den sidst har sendt. En
+ * langsom abonnent samler derfor aldrig mere op end én bit pr. række, uanset hvor mange
+ * ændringer der sker, og modtager kun den seneste tilstand for hvert sæde.
+ *
+ * Første hændelse efter (gen)forbindelse indeholder alle sæder, så klienten altid kan
+ * resynkronisere ved at forbinde igen.
+ *
+ * Skrivninger til en klient der ikke læser, blokerer den tråd der skriver. Tager en
+ * skrivning mere end WRITE_TIMEOUT_MILLIS, afbrydes tråden, hvilket lukker forbindelsen,
+ * så en hængende klient højst binder en tråd i den tid og kan forbinde igen bagefter.
+ *
+ * Hændelser: "seats" med {"version", "seats":[{"id","state"}]} hvor state er free,
+ * booked eller held, og "stats" med samme indhold som /api/stats. Forbinder klienten med
+ * ?partySize=N, sendes også "available" med samme indhold som /api/available-seats, hver
+ * gang de optagne sæder har ændret sig, så klienten ikke selv skal kende reglerne for
+ * fragmentering. Svaret laves én gang pr. gruppestørrelse og sædeversion og deles af
+ * abonnenterne.
+ */
+public class SeatEventStream {
+    private static final long COALESCE_MILLIS = 50;
+    private static final long HEARTBEAT_MILLIS = 15_000;
+    private static final long WRITE_TIMEOUT_MILLIS = 5_000;
+    private static final long WATCHDOG_MILLIS = 1_000;
+    private static final byte[] PING = ": ping\n\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RETRY = "retry: 2000\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final BookingService bookingService;
+    private final CinemaHall hall;
+    private final ScheduledExecutorService scheduler;
+    private final Executor pushers;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final int statsBit;
+    private final AtomicLongArray dirtyRows;
+    private final AtomicBoolean dispatchScheduled = new AtomicBoolean();
+    private final String[] seatIds;
+    private final AtomicReferenceArray<AvailableFrame> availableFrames;
+    private volatile byte[] latestStats;
+
+    /**
+     * @param scheduler samler ændringer og sender heartbeats
+     * @param pushers   skriver til abonnenterne; en langsom klient optager én tråd ad gangen,
+     *                  højst WRITE_TIMEOUT_MILLIS pr. skrivning
+     */
+    public SeatEventStream(BookingService bookingService, ScheduledExecutorService scheduler, Executor pushers) {
+        this.bookingService = bookingService;
+        this.hall = bookingService.getCinemaHall();
+        this.scheduler = scheduler;
+        this.pushers = pushers;
+        this.statsBit = hall.getRows();
+        this.dirtyRows = new AtomicLongArray((statsBit >>> 6) + 1);
+        this.seatIds = new String[hall.getGridSize()];
+        this.availableFrames = new AtomicReferenceArray<>(hall.getSeatsPerRow() + 1);
+        for (int r = 0; r < hall.getRows(); r++) {
+            for (int s = 0; s < hall.getSeatsPerRow(); s++) {
+                seatIds[r * hall.getSeatsPerRow() + s] = r + "-" + s;
+            }
+        }
+
+        hall.addChangeListener(this::onChange);
+        scheduler.scheduleAtFixedRate(this::heartbeat, HEARTBEAT_MILLIS, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(this::dropStalled, WATCHDOG_MILLIS, WATCHDOG_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    public void handle(HttpExchange exchange) throws IOException {
+        BookingController.setCorsHeaders(exchange);
+
+        if ("OPTIONS".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            BookingController.sendJsonResponse(exchange, 405, "{\"error\":\"Method not allowed\"}");
+            return;
+        }
+
+        int partySize = 0;
+        String value = BookingController.parseQuery(exchange.getRequestURI().getRawQuery()).get("partySize");
+        if (value != null) {
+            try {
+                partySize = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                partySize = 0;
+            }
+        }
+        if (partySize < 0 || partySize > hall.getSeatsPerRow()) {
+            BookingController.sendJsonResponse(exchange, 400, "{\"error\":\"Invalid partySize\"}");
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+
+        Subscriber subscriber = new Subscriber(exchange, partySize);
+        subscribers.add(subscriber);
+        subscriber.schedule();
+    }
+
+    private void onChange(int row) {
+        if (subscribers.isEmpty()) return;
+
+        int bit = row < 0 ? statsBit : row;
+        long mask = 1L << bit;
+        if ((dirtyRows.get(bit >>> 6) & mask) == 0) {
+            dirtyRows.getAndAccumulate(bit >>> 6, mask, (a, b) -> a | b);
+        }
+        if (dispatchScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::dispatch, COALESCE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void dispatch() {
+        dispatchScheduled.set(false);
+        long[] rows = new long[dirtyRows.length()];
+        boolean any = false;
+        for (int w = 0; w < rows.length; w++) {
+            rows[w] = dirtyRows.getAndSet(w, 0);
+            any |= rows[w] != 0;
+        }
+        if (!any) return;
+
+        latestStats = renderStats();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.markDirty(rows);
+        }
+    }
+
+    private void heartbeat() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.markPing();
+        }
+    }
+
+    private void dropStalled() {
+        long now = System.nanoTime();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.interruptIfStalled(now);
+        }
+    }
+
+    private byte[] renderStats() {
+        JsonWriter json = JsonWriter.get();
+        json.value(bookingService.getStatistics());
+        return frame("stats", json);
+    }
+
+    /**
+     * "available"-hændelsen for partySize ved sædeversionen seatVersion.
+     */
+    private byte[] renderAvailable(int partySize, long seatVersion) {
+        AvailableFrame cached = availableFrames.get(partySize);
+        if (cached != null && cached.seatVersion == seatVersion) return cached.bytes;
+
+        JsonWriter json = JsonWriter.get();
+        json.beginObject().name("partySize").value(partySize).name("availableSeats").beginArray();
+        for (int code : bookingService.getAvailableSeatCodes(partySize)) {
+            json.value(seatIds[code]);
+        }
+        json.endArray().endObject();
+
+        byte[] bytes = frame("available", json);
+        availableFrames.set(partySize, new AvailableFrame(seatVersion, bytes));
+        return bytes;
+    }
+
+    private static byte[] frame(String event, JsonWriter json) {
+        byte[] head = ("event: " + event + "\ndata: ").getBytes(StandardCharsets.US_ASCII);
+        byte[] frame = new byte[head.length + json.size() + 2];
+        System.arraycopy(head, 0, frame, 0, head.length);
+        System.arraycopy(json.toByteArray(), 0, frame, head.length, json.size());
+        frame[frame.length - 2] = '\n';
+        frame[frame.length - 1] = '\n';
+        return frame;
+    }
+
+    private static final class AvailableFrame {
+        final long seatVersion;
+        final byte[] bytes;
+
+        AvailableFrame(long seatVersion, byte[] bytes) {
+            this.seatVersion = seatVersion;
+            this.bytes = bytes;
+        }
+    }
+
+    private final class Subscriber {
+        private final HttpExchange exchange;
+        private final OutputStream out;
+        private final int partySize;
+        private long sentSeatVersion = -1;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final long[] sentOccupied;
+        private final long[] sentHeld;
+        private final long[] occupied;
+        private final long[] held;
+
+        // Beskyttet af this
+        private final long[] dirty = new long[dirtyRows.length()];
+        private boolean full = true;
+        private boolean ping;
+        private Thread writer;
+        private long writeStarted;
+
+        Subscriber(HttpExchange exchange, int partySize) {
+            this.exchange = exchange;
+            this.out = exchange.getResponseBody();
+            this.partySize = partySize;
+            this.sentOccupied = new long[hall.getRows() * hall.getWordsPerRow()];
+            this.sentHeld = new long[sentOccupied.length];
+            this.occupied = hall.newRowBuffer();
+            this.held = hall.newRowBuffer();
+        }
+
+        void markDirty(long[] rows) {
+            synchronized (this) {
+                for (int w = 0; w < rows.length; w++) {
+                    dirty[w] |= rows[w];
+                }
+            }
+            schedule();
+        }
+
+        void markPing() {
+            synchronized (this) {
+                ping = true;
+            }
+            schedule();
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    pushers.execute(this::flush);
+                } catch (RuntimeException e) {
+                    close();
+                }
+            }
+        }
+
+        private void flush() {
+            long[] rows = new long[dirty.length];
+            try {
+                while (true) {
+                    boolean sendFull;
+                    boolean sendPing;
+                    boolean any = false;
+                    synchronized (this) {
+                        sendFull = full;
+                        sendPing = ping;
+                        full = false;
+                        ping = false;
+                        for (int w = 0; w < dirty.length; w++) {
+                            rows[w] = dirty[w];
+                            dirty[w] = 0;
+                            any |= rows[w] != 0;
+                        }
+                    }
+
+                    if (!sendFull && !sendPing && !any) {
+                        scheduled.set(false);
+                        synchronized (this) {
+                            if (!hasPending()) return;
+                        }
+                        if (!scheduled.compareAndSet(false, true)) return;
+                        continue;
+                    }
+
+                    beginWrite();
+                    try {
+                        if (sendFull) {
+                            out.write(RETRY);
+                            writeSeats(rows, true);
+                            out.write(renderStats());
+                            writeAvailable();
+                        } else if (any) {
+                            writeSeats(rows, false);
+                            byte[] stats = latestStats;
+                            if (stats != null) out.write(stats);
+                            writeAvailable();
+                        }
+                        if (sendPing) out.write(PING);
+                        out.flush();
+                    } finally {
+                        endWrite();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                close();
+            }
+        }
+
+        private synchronized void beginWrite() {
+            writer = Thread.currentThread();
+            writeStarted = System.nanoTime();
+        }
+
+        /**
+         * Efter endWrite kan watchdoggen ikke længere afbryde tråden for denne abonnent; en
+         * afbrydelse der nåede frem lige før, ryddes, så den ikke rammer næste abonnent.
+         */
+        private void endWrite() {
+            synchronized (this) {
+                writer = null;
+            }
+            Thread.interrupted();
+        }
+
+        /**
+         * Afbryder skrivetråden hvis den har skrevet længere end WRITE_TIMEOUT_MILLIS. Kanalen
+         * under en blokeret skrivning lukkes af afbrydelsen, og flush lukker abonnenten.
+         */
+        synchronized void interruptIfStalled(long now) {
+            if (writer != null && now - writeStarted > TimeUnit.MILLISECONDS.toNanos(WRITE_TIMEOUT_MILLIS)) {
+                writer.interrupt();
+                writer = null;
+            }
+        }
+
+        private boolean hasPending() {
+            if (full || ping) return true;
+            for (long word : dirty) {
+                if (word != 0) return true;
+            }
+            return false;
+        }
+
+        private void writeSeats(long[] rows, boolean all) throws IOException {
+            int wordsPerRow = hall.getWordsPerRow();
+            int seatsPerRow = hall.getSeatsPerRow();
+            long version = hall.getVersion();
+            JsonWriter json = JsonWriter.get();
+            json.beginObject().name("version").value(version).name("seats").beginArray();
+
+            boolean changedAny = false;
+            for (int r = 0; r < hall.getRows(); r++) {
+                if (!all && (rows[r >>> 6] & (1L << r)) == 0) continue;
+
+                hall.readRow(r, occupied);
+                hall.readHeld(r, held);
+                for (int w = 0; w < wordsPerRow; w++) {
+                    int i = r * wordsPerRow + w;
+                    long valid = ~hall.getFixedWord(r, w);
+                    long changed = all ? valid : ((occupied[w] ^ sentOccupied[i]) | (held[w] ^ sentHeld[i])) & valid;
+                    sentOccupied[i] = occupied[w];
+                    sentHeld[i] = held[w];
+
+                    while (changed != 0) {
+                        int bit = Long.numberOfTrailingZeros(changed);
+                        changed &= changed - 1;
+                        long seat = 1L << bit;
+                        String state = (held[w] & seat) != 0 ? "held"
+                                : (occupied[w] & seat) != 0 ? "booked" : "free";
+                        json.beginObject()
+                                .name("id").value(seatIds[r * seatsPerRow + (w << 6) + bit])
+                                .name("state").value(state)
+                                .endObject();
+                        changedAny = true;
+                    }
+                }
+            }
+            json.endArray().endObject();
+
+            if (changedAny || all) out.write(frame("seats", json));
+        }
+
+        /**
+         * Sender de ledige sæder for abonnentens gruppestørrelse, hvis de optagne sæder har
+         * ændret sig siden sidst. Kaldes kun fra skrivetråden.
+         */
+        private void writeAvailable() throws IOException {
+            if (partySize == 0) return;
+            long seatVersion = hall.getSeatVersion();
+            if (seatVersion == sentSeatVersion) return;
+            out.write(renderAvailable(partySize, seatVersion));
+            sentSeatVersion = seatVersion;
+        }
+
+        private void close() {
+            if (subscribers.remove(this)) {
+                exchange.close();
+            }
+        }
+    }
+}
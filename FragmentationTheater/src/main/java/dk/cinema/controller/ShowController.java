@@ -0,0 +1,170 @@
+package dk.cinema.controller;
+
+import com.sun.net.httpserver.HttpExchange;
+import dk.cinema.model.Show;
+import dk.cinema.model.VenueLayout;
+import dk.cinema.service.BookingService;
+import dk.cinema.service.ShowRegistry;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Ruter under /api/shows. Kald til /api/shows/{id}/{handling} sendes videre til
+ * forestillingens egen BookingController.
+ */
+public class ShowController {
+    private static final String PREFIX = "/api/shows";
+    private static final Set<String> ACTIONS = Set.of("cinema", "book", "reset", "stats", "available-seats",
+            "config", "events", "hold");
+
+    private final ShowRegistry registry;
+    private final Map<String, BookingController> controllers = new ConcurrentHashMap<>();
+    private final Map<String, SeatEventStream> eventStreams = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService eventScheduler;
+    private final Executor eventPushers;
+
+    public ShowController(ShowRegistry registry, ScheduledExecutorService eventScheduler, Executor eventPushers) {
+        this.registry = registry;
+        this.eventScheduler = eventScheduler;
+        this.eventPushers = eventPushers;
+    }
+
+    /**
+     * Forestillingens SSE-strøm, eller null hvis forestillingen ikke findes.
+     */
+    public SeatEventStream eventStream(String showId) {
+        BookingService service = registry.getService(showId);
+        if (service == null) return null;
+        return eventStreams.computeIfAbsent(showId, id -> new SeatEventStream(service, eventScheduler, eventPushers));
+    }
+
+    public void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String rest = path.length() > PREFIX.length() ? path.substring(PREFIX.length() + 1) : "";
+
+        if (rest.isEmpty()) {
+            handleShows(exchange);
+            return;
+        }
+
+        int slash = rest.indexOf('/');
+        String showId = slash < 0 ? rest : rest.substring(0, slash);
+        String action = slash < 0 ? "config" : rest.substring(slash + 1);
+
+        BookingController controller = controllerFor(showId);
+        if (controller == null) {
+            BookingController.setCorsHeaders(exchange);
+            BookingController.sendJsonResponse(exchange, 404, "{\"error\":\"Show not found\"}");
+            return;
+        }
+
+        switch (action) {
+            case "cinema": controller.handleCinemaState(exchange); break;
+            case "book": controller.handleBooking(exchange); break;
+            case "book/batch": controller.handleBatchBooking(exchange); break;
+            case "book/best": controller.handleBestBooking(exchange); break;
+            case "reset": controller.handleReset(exchange); break;
+            case "stats": controller.handleStats(exchange); break;
+            case "available-seats": controller.handleAvailableSeats(exchange); break;
+            case "config": controller.handleConfig(exchange); break;
+            case "events": eventStream(showId).handle(exchange); break;
+            default:
+                if (action.equals("hold") || action.startsWith("hold/")) {
+                    controller.handleHold(exchange);
+                    break;
+                }
+                if (action.startsWith("book/")) {
+                    controller.handleBooking(exchange);
+                    break;
+                }
+                BookingController.setCorsHeaders(exchange);
+                BookingController.sendJsonResponse(exchange, 404, "{\"error\":\"Not found\"}");
+        }
+    }
+
+    /**
+     * Navn til HttpMetrics. Forestillings-id og booking- eller hold-id'er udelades, så alle
+     * forestillinger deler endpoints, fx "shows/book/{id}" og "shows/hold/{id}/confirm".
+     * Ukendte handlinger samles under "shows/other".
+     */
+    public static String endpointOf(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getPath();
+        String rest = path.length() > PREFIX.length() ? path.substring(PREFIX.length() + 1) : "";
+        int slash = rest.indexOf('/');
+        if (rest.isEmpty()) return "shows";
+        if (slash < 0) return "shows/config";
+
+        String action = rest.substring(slash + 1);
+        if (action.equals("book/batch") || action.equals("book/best")) return "shows/" + action;
+        for (String prefix : new String[] {"book/", "hold/"}) {
+            if (action.startsWith(prefix)) {
+                return "shows/" + prefix + "{id}" + (action.endsWith("/confirm") ? "/confirm" : "");
+            }
+        }
+        return ACTIONS.contains(action) ? "shows/" + action : "shows/other";
+    }
+
+    private void handleShows(HttpExchange exchange) throws IOException {
+        BookingController.setCorsHeaders(exchange);
+
+        if ("OPTIONS".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+
+        if ("POST".equals(exchange.getRequestMethod())) {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            try {
+                JSONObject json = new JSONObject(body);
+                String id = json.getString("id");
+                String title = json.optString("title", id);
+                // "layout" er en opbygning i VenueLayouts filformat; ellers en rektangulær sal.
+                // Store spillesteder må kun komme fra en fil ved opstart.
+                Show show = json.has("layout")
+                        ? registry.createShow(id, title,
+                                VenueLayout.parse(json.getString("layout"), VenueLayout.MAX_INLINE_POSITIONS))
+                        : registry.createShow(id, title, json.optInt("rows", 10), json.optInt("seatsPerRow", 13));
+                JsonWriter response = JsonWriter.get();
+                writeShow(response, show);
+                response.send(exchange, 201);
+            } catch (IllegalArgumentException | JSONException e) {
+                JsonWriter.get().beginObject().name("error").value(e.getMessage()).endObject()
+                        .send(exchange, 400);
+            }
+            return;
+        }
+
+        JsonWriter json = JsonWriter.get();
+        json.beginObject().name("shows").beginArray();
+        for (Show show : registry.getShows()) {
+            writeShow(json, show);
+        }
+        json.endArray().endObject();
+        json.send(exchange, 200);
+    }
+
+    private BookingController controllerFor(String showId) {
+        BookingService service = registry.getService(showId);
+        if (service == null) return null;
+        return controllers.computeIfAbsent(showId, id -> new BookingController(service));
+    }
+
+    private void writeShow(JsonWriter json, Show show) {
+        BookingService service = registry.getService(show.getId());
+        json.beginObject()
+                .name("id").value(show.getId())
+                .name("title").value(show.getTitle())
+                .name("rows").value(service.getCinemaHall().getRows())
+                .name("seatsPerRow").value(service.getCinemaHall().getSeatsPerRow())
+                .name("totalSeats").value(service.getCinemaHall().getTotalSeats())
+                .endObject();
+    }
+}
@@ -0,0 +1,261 @@
+package dk.cinema.controller;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serverer statiske filer fra en mappe via en cache i hukommelsen.
+ *
+ * En fil læses første gang den efterspørges; derefter ligger bytes, MIME-type, en
+ * gzip-udgave, en ETag for hver udgave og Last-Modified klar, og requests rører ikke
+ * filsystemet. Med watch slået til overvåges mappen med en WatchService, og ændrede
+ * filer fjernes fra cachen, så de læses igen ved næste request. Hver fjernelse tæller en
+ * generation op; ændres generationen mens en fil læses, beholdes den læste udgave ikke i
+ * cachen, da den kan være fra før ændringen.
+ */
+public class StaticFileHandler implements HttpHandler {
+    private static final int MIN_GZIP_BYTES = 256;
+    private static final Map<String, String> MIME_TYPES = Map.of(
+            "html", "text/html; charset=utf-8",
+            "js", "text/javascript; charset=utf-8",
+            "css", "text/css; charset=utf-8",
+            "json", "application/json",
+            "svg", "image/svg+xml",
+            "png", "image/png",
+            "ico", "image/x-icon");
+
+    private final Path baseDir;
+    private final Map<Path, Asset> cache = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final WatchService watcher;
+    private final Map<Path, Boolean> watchedDirectories = new ConcurrentHashMap<>();
+
+    public StaticFileHandler(String baseDir, boolean watch) throws IOException {
+        this.baseDir = Path.of(baseDir).toAbsolutePath().normalize();
+        this.watcher = watch && Files.isDirectory(this.baseDir) ? startWatching() : null;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            exchange.sendResponseHeaders(405, -1);
+            exchange.close();
+            return;
+        }
+
+        String filePath = exchange.getRequestURI().getPath();
+        if (filePath.equals("/")) filePath = "/index.html";
+
+        Path file = baseDir.resolve("." + filePath).normalize();
+        Asset asset = file.startsWith(baseDir) ? lookup(file) : null;
+        if (asset == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+
+        // gzip- og identitetsudgaven er forskellige bytes og har derfor hver sin ETag.
+        boolean gzip = asset.gzipped != null && acceptsGzip(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+        String etag = gzip ? asset.gzipEtag : asset.etag;
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Last-Modified", asset.lastModifiedHeader);
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+
+        if (isNotModified(exchange, etag, asset.lastModified)) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+
+        byte[] body = gzip ? asset.gzipped : asset.bytes;
+        if (gzip) exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        exchange.getResponseHeaders().set("Content-Type", asset.mimeType);
+
+        if ("HEAD".equals(method)) {
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private Asset lookup(Path file) throws IOException {
+        Asset asset = cache.get(file);
+        if (asset != null) return asset;
+        if (!Files.isRegularFile(file)) return null;
+
+        if (watcher != null) watchDirectory(file.getParent());
+        long loadedAt = generation.get();
+        asset = load(file);
+        Asset existing = cache.putIfAbsent(file, asset);
+        if (existing != null) return existing;
+        // Watcheren tæller generationen op før den fjerner; er den talt op nu, kan den have
+        // fjernet før putIfAbsent, og den læste udgave må ikke blive liggende.
+        if (generation.get() != loadedAt) cache.remove(file, asset);
+        return asset;
+    }
+
+    private static Asset load(Path file) throws IOException {
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        byte[] bytes = Files.readAllBytes(file);
+
+        String mimeType = mimeType(file);
+        byte[] gzipped = null;
+        if (bytes.length >= MIN_GZIP_BYTES && isCompressible(mimeType)) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length / 3);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(buffer)) {
+                gzip.write(bytes);
+            }
+            if (buffer.size() < bytes.length) gzipped = buffer.toByteArray();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        String etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(bytes.length) + "\"";
+        return new Asset(bytes, gzipped, mimeType, etag, lastModified);
+    }
+
+    private static String mimeType(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String known = dot < 0 ? null : MIME_TYPES.get(name.substring(dot + 1).toLowerCase());
+        if (known != null) return known;
+
+        String probed = Files.probeContentType(file);
+        return probed != null ? probed : "application/octet-stream";
+    }
+
+    private static boolean isCompressible(String mimeType) {
+        return mimeType.startsWith("text/") || mimeType.startsWith("application/json")
+                || mimeType.startsWith("image/svg") || mimeType.startsWith("application/javascript");
+    }
+
+    private static boolean isNotModified(HttpExchange exchange, String etag, long lastModified) {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.startsWith("W/")) tag = tag.substring(2);
+                if (tag.equals(etag) || tag.equals("*")) return true;
+            }
+            return false;
+        }
+
+        String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+        if (ifModifiedSince == null) return false;
+        try {
+            long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME)
+                    .toInstant().toEpochMilli();
+            return lastModified / 1000 <= since / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.trim().split(";");
+            String coding = params[0].trim();
+            if (!coding.equalsIgnoreCase("gzip") && !coding.equals("*")) continue;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        if (Double.parseDouble(param.substring(2)) == 0) return false;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private WatchService startWatching() throws IOException {
+        WatchService service = FileSystems.getDefault().newWatchService();
+        Thread thread = new Thread(() -> runWatcher(service), "static-watch");
+        thread.setDaemon(true);
+        thread.start();
+        return service;
+    }
+
+    private void watchDirectory(Path directory) {
+        watchedDirectories.computeIfAbsent(directory, dir -> {
+            try {
+                dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        });
+    }
+
+    private void runWatcher(WatchService service) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path directory = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                generation.incrementAndGet();
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    cache.clear();
+                } else {
+                    cache.remove(directory.resolve((Path) event.context()));
+                }
+            }
+            if (!key.reset()) {
+                watchedDirectories.remove(directory);
+            }
+        }
+    }
+
+    private static final class Asset {
+        final byte[] bytes;
+        final byte[] gzipped;
+        final String mimeType;
+        final String etag;
+        final String gzipEtag;
+        final long lastModified;
+        final String lastModifiedHeader;
+
+        Asset(byte[] bytes, byte[] gzipped, String mimeType, String etag, long lastModified) {
+            this.bytes = bytes;
+            this.gzipped = gzipped;
+            this.mimeType = mimeType;
+            this.etag = etag;
+            this.gzipEtag = etag.substring(0, etag.length() - 1) + "-gz\"";
+            this.lastModified = lastModified;
+            this.lastModifiedHeader = DateTimeFormatter.RFC_1123_DATE_TIME
+                    .format(Instant.ofEpochMilli(lastModified).atZone(ZoneOffset.UTC));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package dk.cinema.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram med faste bucket-grænser og en LongAdder pr. bucket, så målinger fra mange
+ * tråde aldrig venter på hinanden. Værdier registreres i heltal (nanosekunder eller bytes)
+ * og skaleres først når de skrives ud.
+ */
+public final class Histogram {
+    private static final long[] LATENCY_BOUNDS = {
+            micros(10), micros(25), micros(50), micros(100), micros(250), micros(500),
+            millis(1), millis(2) + micros(500), millis(5), millis(10), millis(25), millis(50),
+            millis(100), millis(250), millis(500), millis(1000), millis(2500), millis(5000)};
+    private static final long[] SIZE_BOUNDS = {
+            64, 256, 1 << 10, 4 << 10, 16 << 10, 64 << 10, 256 << 10, 1 << 20, 4 << 20};
+
+    private final long[] bounds;
+    private final LongAdder[] buckets;
+    private final LongAdder sum = new LongAdder();
+
+    public Histogram(long[] bounds) {
+        this.bounds = bounds.clone();
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Varigheder i nanosekunder fra 10 µs til 5 s.
+     */
+    public static Histogram latency() {
+        return new Histogram(LATENCY_BOUNDS);
+    }
+
+    /**
+     * Størrelser i bytes fra 64 B til 4 MiB.
+     */
+    public static Histogram size() {
+        return new Histogram(SIZE_BOUNDS);
+    }
+
+    public void record(long value) {
+        int i = 0;
+        while (i < bounds.length && value > bounds[i]) i++;
+        buckets[i].increment();
+        sum.add(value);
+    }
+
+    long[] getBounds() {
+        return bounds;
+    }
+
+    /**
+     * Antal målinger pr. bucket, ikke kumulativt; sidste element er over største grænse.
+     */
+    long[] bucketCounts() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    private static long micros(long value) {
+        return TimeUnit.MICROSECONDS.toNanos(value);
+    }
+
+    private static long millis(long value) {
+        return TimeUnit.MILLISECONDS.toNanos(value);
+    }
+}
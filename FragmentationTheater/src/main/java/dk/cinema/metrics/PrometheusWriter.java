@@ -0,0 +1,77 @@
+package dk.cinema.metrics;
+
+/**
+ * Skriver metrikker i Prometheus' tekstformat (version 0.0.4). Alle målinger i en familie
+ * skal skrives samlet lige efter family().
+ */
+public final class PrometheusWriter {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    public static final double NANOS_PER_SECOND = 1e9;
+
+    private final StringBuilder out = new StringBuilder(4096);
+
+    public PrometheusWriter family(String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    public PrometheusWriter sample(String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) out.append('{').append(labels).append('}');
+        out.append(' ').append(format(value)).append('\n');
+        return this;
+    }
+
+    /**
+     * Skriver _bucket, _sum og _count for histogrammet. scale divideres ind i grænser og sum,
+     * fx NANOS_PER_SECOND for at vise nanosekunder som sekunder.
+     */
+    public PrometheusWriter histogram(String name, String labels, Histogram histogram, double scale) {
+        long[] bounds = histogram.getBounds();
+        long[] counts = histogram.bucketCounts();
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += counts[i];
+            sample(name + "_bucket", prefix + "le=\"" + format(bounds[i] / scale) + "\"", cumulative);
+        }
+        cumulative += counts[bounds.length];
+        sample(name + "_bucket", prefix + "le=\"+Inf\"", cumulative);
+        sample(name + "_sum", labels, histogram.getSum() / scale);
+        sample(name + "_count", labels, cumulative);
+        return this;
+    }
+
+    /**
+     * Bygger en label-streng af par af navne og værdier, fx labels("show", "default").
+     */
+    public static String labels(String... pairs) {
+        StringBuilder labels = new StringBuilder();
+        for (int i = 0; i + 1 < pairs.length; i += 2) {
+            if (labels.length() > 0) labels.append(',');
+            labels.append(pairs[i]).append("=\"");
+            String value = pairs[i + 1];
+            for (int c = 0; c < value.length(); c++) {
+                char ch = value.charAt(c);
+                if (ch == '\\' || ch == '"') labels.append('\\').append(ch);
+                else if (ch == '\n') labels.append("\\n");
+                else labels.append(ch);
+            }
+            labels.append('"');
+        }
+        return labels.toString();
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value)) return "NaN";
+        if (Double.isInfinite(value)) return value > 0 ? "+Inf" : "-Inf";
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long) value);
+        return Double.toString(value);
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+}
@@ -2,8 +2,13 @@ package dk.cinema.model;
 
 import java.util.List;
 
+/**
+ * Sæderne angives enten som sædekoder (se CinemaHall.seatCode) eller som "række-nummer"-id'er.
+ * Er begge sat, bruges koderne.
+ */
 public class BookingRequest {
     private List<String> seatIds;
+    private int[] seatCodes;
     private String customerName;
 
     public BookingRequest() {}
@@ -13,9 +18,17 @@ public class BookingRequest {
         this.customerName = customerName;
     }
 
+    public BookingRequest(int[] seatCodes, String customerName) {
+        this.seatCodes = seatCodes;
+        this.customerName = customerName;
+    }
+
     public List<String> getSeatIds() { return seatIds; }
     public void setSeatIds(List<String> seatIds) { this.seatIds = seatIds; }
 
+    public int[] getSeatCodes() { return seatCodes; }
+    public void setSeatCodes(int[] seatCodes) { this.seatCodes = seatCodes; }
+
     public String getCustomerName() { return customerName; }
     public void setCustomerName(String customerName) { this.customerName = customerName; }
 }
\ No newline at end of file
@@ -1,40 +1,486 @@
 package dk.cinema.model;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
 
+/**
+ * Biografsal hvor belægningen gemmes som bits i long-ord, ét eller flere ord pr. række.
+ * Bits efter rækkens sidste sæde er altid sat, så rækkens ender opfører sig som optagne naboer.
+ * Seat-objekter oprettes kun som visninger ved behov.
+ *
+ * En række ændres med compare-and-set fra et tidligere læst øjebliksbillede. Rækker på
+ * højst 64 sæder er ét ord og ændres uden lås; bredere rækker sammenlignes og skrives
+ * under en kort lås for rækken. Tællere for optagne og isolerede sæder opdateres ud fra
+ * forskellen mellem før og efter, og hver rækkes ledige sekvenser genopbygges først når
+ * de læses efter en ændring.
+ *
+ * Holdte sæder (pladser i en igangværende betaling) er optagne i belægningsordene og
+ * markeres desuden i en separat bitmaske, så de tæller som optagne i alle regler.
+ *
+ * Salen kan have en uregelmæssig opbygning (VenueLayout). Pladser i gitteret der ikke er
+ * sæder, er faste bits der altid er sat, så gange og spærrede pladser virker som rækkens
+ * ender. Et sæde der står alene mellem to faste kanter, kan aldrig få en ledig nabo; det
+ * tælles derfor ikke som isoleret.
+ *
+ * Salens version tælles op efter hver ændring af belægning eller hold. Den kan kun stige,
+ * så en uændret version betyder at intet er ændret siden den blev læst. Sædeversionen og
+ * rækkeversionerne tælles kun op når belægningsordene ændres; de bruges af caches der
+ * kun afhænger af hvilke sæder der er optagne, og holdversionen når hold-markeringer
+ * sættes eller fjernes. Lyttere får
+ * rækkenummeret efter hver ændring af en række og -1 for ændringer uden for rækkerne.
+ */
 public class CinemaHall {
+    private static final long[] NO_LONE_SEATS = new long[0];
+
+    private final VenueLayout layout;
     private final int rows;
     private final int seatsPerRow;
-    private final Seat[][] seats;
+    private final int wordsPerRow;
+    private final AtomicLongArray occupancy;
+    private final AtomicLongArray held;
+    private final AtomicReferenceArray<String> bookingIds;
+    private final AtomicReferenceArray<FreeRuns> freeRuns;
+    private final long[] fixedWords;
+    private final long[][] loneSeats;
+    private final Object[] rowLocks;
+    private final LongAdder occupiedSeats = new LongAdder();
+    private final LongAdder isolatedSeats = new LongAdder();
+    private final LongAdder heldSeats = new LongAdder();
+    private final LongAdder version = new LongAdder();
+    private final AtomicLong seatVersion = new AtomicLong();
+    private final AtomicLong holdVersion = new AtomicLong();
+    private final AtomicLongArray rowVersions;
+    private final List<IntConsumer> changeListeners = new CopyOnWriteArrayList<>();
 
     public CinemaHall(int rows, int seatsPerRow) {
-        this.rows = rows;
-        this.seatsPerRow = seatsPerRow;
-        this.seats = new Seat[rows][seatsPerRow];
+        this(VenueLayout.rectangular(rows, seatsPerRow));
+    }
+
+    public CinemaHall(VenueLayout layout) {
+        this.layout = layout;
+        this.rows = layout.getRows();
+        this.seatsPerRow = layout.getWidth();
+        this.wordsPerRow = SeatBits.wordsFor(seatsPerRow);
+        this.occupancy = new AtomicLongArray(rows * wordsPerRow);
+        this.held = new AtomicLongArray(rows * wordsPerRow);
+        this.bookingIds = new AtomicReferenceArray<>(rows * seatsPerRow);
+        this.freeRuns = new AtomicReferenceArray<>(rows);
+        this.rowVersions = new AtomicLongArray(rows);
+        this.rowLocks = new Object[wordsPerRow > 1 ? rows : 0];
+        for (int r = 0; r < rowLocks.length; r++) {
+            rowLocks[r] = new Object();
+        }
 
+        this.fixedWords = new long[rows * wordsPerRow];
+        this.loneSeats = new long[rows][];
         for (int r = 0; r < rows; r++) {
-            for (int s = 0; s < seatsPerRow; s++) {
-                seats[r][s] = new Seat(r, s);
+            for (int w = 0; w < wordsPerRow; w++) {
+                long fixed = ~SeatBits.rangeInWord(w, 0, seatsPerRow) | layout.getBlockedWord(r, w);
+                fixedWords[r * wordsPerRow + w] = fixed;
+                occupancy.set(r * wordsPerRow + w, fixed);
             }
+            // I en tom række er de eneste isolerede sæder dem mellem to faste kanter.
+            long[] lone = isolatedIn(emptyRow(r));
+            loneSeats[r] = isEmpty(lone) ? NO_LONE_SEATS : lone;
         }
     }
 
-    public Seat[][] getSeats() { return seats; }
     public int getRows() { return rows; }
     public int getSeatsPerRow() { return seatsPerRow; }
+    public int getWordsPerRow() { return wordsPerRow; }
+    public VenueLayout getLayout() { return layout; }
+
+    /**
+     * Antal sæder der kan bookes. Gange og spærrede pladser tæller ikke med.
+     */
+    public int getTotalSeats() { return layout.getTotalSeats(); }
+
+    /**
+     * Antal pladser i gitteret, rows * seatsPerRow; sædekoder ligger fra 0 til dette tal.
+     */
+    public int getGridSize() { return rows * seatsPerRow; }
+    public int getOccupiedSeats() { return occupiedSeats.intValue(); }
+    public int getFreeSeats() { return getTotalSeats() - getOccupiedSeats(); }
+    public int getIsolatedSeats() { return isolatedSeats.intValue(); }
+    public int getHeldSeats() { return heldSeats.intValue(); }
+    public long getVersion() { return version.sum(); }
+    public long getSeatVersion() { return seatVersion.get(); }
+    public long getHoldVersion() { return holdVersion.get(); }
+    public long getRowVersion(int row) { return rowVersions.get(row); }
+
+    /**
+     * Tæller versionen op for ændringer uden for salens egne bits, fx afviste bookinger
+     * der ændrer statistikken.
+     */
+    public void bumpVersion() {
+        version.increment();
+        fireChanged(-1);
+    }
+
+    /**
+     * Registrerer en lytter der kaldes på den tråd der ændrede salen. Den skal være hurtig.
+     */
+    public void addChangeListener(IntConsumer listener) {
+        changeListeners.add(listener);
+    }
+
+    public void removeChangeListener(IntConsumer listener) {
+        changeListeners.remove(listener);
+    }
+
+    private void fireChanged(int row) {
+        for (IntConsumer listener : changeListeners) {
+            listener.accept(row);
+        }
+    }
+
+    public boolean isValidSeat(int row, int number) {
+        return row >= 0 && row < rows && number >= 0 && number < seatsPerRow;
+    }
+
+    /**
+     * Sædekode for et sæde: row * seatsPerRow + number. Koder er tætte fra 0 til
+     * getGridSize() - 1 og bruges i stedet for "række-nummer"-strenge hvor det er muligt.
+     */
+    public int seatCode(int row, int number) {
+        return row * seatsPerRow + number;
+    }
+
+    public int rowOf(int seatCode) {
+        return seatCode / seatsPerRow;
+    }
+
+    public int numberOf(int seatCode) {
+        return seatCode % seatsPerRow;
+    }
+
+    public boolean isValidSeatCode(int seatCode) {
+        return seatCode >= 0 && seatCode < rows * seatsPerRow;
+    }
+
+    public String seatId(int seatCode) {
+        return rowOf(seatCode) + "-" + numberOf(seatCode);
+    }
+
+    /**
+     * Oversætter "række-nummer" til en sædekode uden at dele strengen op. Returnerer -1
+     * for et sæde uden for salen og kaster NumberFormatException hvis id'et ikke har formen
+     * "række-nummer".
+     */
+    public int parseSeatId(String seatId) {
+        int dash = seatId.indexOf('-');
+        if (dash <= 0 || dash == seatId.length() - 1) {
+            throw new NumberFormatException("Ugyldigt sæde-id: " + seatId);
+        }
+        int row = Integer.parseInt(seatId, 0, dash, 10);
+        int number = Integer.parseInt(seatId, dash + 1, seatId.length(), 10);
+        return isValidSeat(row, number) ? seatCode(row, number) : -1;
+    }
 
     public Seat getSeat(int row, int number) {
-        if (row >= 0 && row < rows && number >= 0 && number < seatsPerRow) {
-            return seats[row][number];
+        if (isValidSeat(row, number)) {
+            return new Seat(this, row, number);
         }
         return null;
     }
 
+    /**
+     * Alle sæder der kan bookes; gange og spærrede pladser kommer ikke med.
+     */
     public List<Seat> getAllSeats() {
-        List<Seat> allSeats = new ArrayList<>();
-        for (Seat[] row : seats) {
-            allSeats.addAll(Arrays.asList(row));
+        List<Seat> allSeats = new ArrayList<>(getTotalSeats());
+        for (int r = 0; r < rows; r++) {
+            for (int s = 0; s < seatsPerRow; s++) {
+                if (isSeat(r, s)) allSeats.add(new Seat(this, r, s));
+            }
         }
         return allSeats;
     }
+
+    /**
+     * Sand hvis pladsen er et sæde og ikke en gang eller en spærret plads.
+     */
+    public boolean isSeat(int row, int number) {
+        return isValidSeat(row, number) && (fixedWords[row * wordsPerRow + (number >>> 6)] & (1L << number)) == 0;
+    }
+
+    /**
+     * Faste bits i rækkens ord: gange, spærrede pladser og bits efter rækkens sidste plads.
+     */
+    public long getFixedWord(int row, int word) {
+        if (word < 0 || word >= wordsPerRow) return -1L;
+        return fixedWords[row * wordsPerRow + word];
+    }
+
+    /**
+     * Sæder i rækkens ord der står alene mellem to faste kanter og aldrig tælles som isolerede.
+     */
+    public long getLoneSeats(int row, int word) {
+        long[] lone = loneSeats[row];
+        return lone.length == 0 ? 0L : lone[word];
+    }
+
+    public boolean isOccupied(int row, int number) {
+        return (getRowWord(row, number >>> 6) & (1L << number)) != 0;
+    }
+
+    public boolean isHeld(int row, int number) {
+        return (held.get(row * wordsPerRow + (number >>> 6)) & (1L << number)) != 0;
+    }
+
+    /**
+     * Sætter eller fjerner hold-markeringen for sæderne [from, to). Sæderne skal allerede være optagne.
+     */
+    public void markHeld(int row, int from, int to, boolean isHeld) {
+        boolean anyChanged = false;
+        for (int w = from >>> 6; w <= (to - 1) >>> 6; w++) {
+            long mask = SeatBits.rangeInWord(w, from, to);
+            long old = isHeld
+                    ? held.getAndAccumulate(row * wordsPerRow + w, mask, (a, b) -> a | b)
+                    : held.getAndAccumulate(row * wordsPerRow + w, ~mask, (a, b) -> a & b);
+            long changed = isHeld ? mask & ~old : mask & old;
+            if (changed != 0) {
+                heldSeats.add(isHeld ? Long.bitCount(changed) : -Long.bitCount(changed));
+                holdVersion.incrementAndGet();
+                version.increment();
+                anyChanged = true;
+            }
+        }
+        if (anyChanged) fireChanged(row);
+    }
+
+    public String getBookingId(int row, int number) {
+        return isOccupied(row, number) ? bookingIds.get(row * seatsPerRow + number) : null;
+    }
+
+    /**
+     * Returnerer et belægningsord for rækken; ord uden for rækken er -1L.
+     */
+    public long getRowWord(int row, int word) {
+        if (word < 0 || word >= wordsPerRow) return -1L;
+        return occupancy.get(row * wordsPerRow + word);
+    }
+
+    public long[] newRowBuffer() {
+        return new long[wordsPerRow];
+    }
+
+    /**
+     * Kopierer et sammenhængende øjebliksbillede af rækkens ord til dest.
+     */
+    public void readRow(int row, long[] dest) {
+        if (wordsPerRow == 1) {
+            dest[0] = occupancy.get(row);
+            return;
+        }
+        synchronized (rowLocks[row]) {
+            for (int w = 0; w < wordsPerRow; w++) {
+                dest[w] = occupancy.get(row * wordsPerRow + w);
+            }
+        }
+    }
+
+    /**
+     * Kopierer rækkens hold-maske til dest.
+     */
+    public void readHeld(int row, long[] dest) {
+        for (int w = 0; w < wordsPerRow; w++) {
+            dest[w] = held.get(row * wordsPerRow + w);
+        }
+    }
+
+    /**
+     * Skriver update i rækken hvis den stadig er lig expected. Returnerer false hvis en anden
+     * tråd har ændret rækken siden expected blev læst.
+     */
+    public boolean compareAndSetRow(int row, long[] expected, long[] update) {
+        if (wordsPerRow == 1) {
+            if (!occupancy.compareAndSet(row, expected[0], update[0])) return false;
+        } else {
+            synchronized (rowLocks[row]) {
+                for (int w = 0; w < wordsPerRow; w++) {
+                    if (occupancy.get(row * wordsPerRow + w) != expected[w]) return false;
+                }
+                for (int w = 0; w < wordsPerRow; w++) {
+                    occupancy.set(row * wordsPerRow + w, update[w]);
+                }
+            }
+        }
+
+        int occupiedDelta = 0;
+        for (int w = 0; w < wordsPerRow; w++) {
+            occupiedDelta += Long.bitCount(update[w]) - Long.bitCount(expected[w]);
+        }
+        occupiedSeats.add(occupiedDelta);
+        isolatedSeats.add(countIsolated(row, update) - countIsolated(row, expected));
+        rowVersions.incrementAndGet(row);
+        seatVersion.incrementAndGet();
+        version.increment();
+        fireChanged(row);
+        return true;
+    }
+
+    /**
+     * Registrerer hvilken booking der ejer sæderne [from, to). Kaldes efter at sæderne er optaget.
+     */
+    public void assignBookingId(int row, int from, int to, String bookingId) {
+        for (int s = from; s < to; s++) {
+            bookingIds.set(row * seatsPerRow + s, bookingId);
+        }
+    }
+
+    public void book(int row, int number, String bookingId) {
+        bookRange(row, number, number + 1, bookingId);
+    }
+
+    /**
+     * Frigiver sædet fra den booking eller det hold der ejer det nu.
+     */
+    public void release(int row, int number) {
+        String owner = bookingIds.get(row * seatsPerRow + number);
+        if (owner != null) releaseRange(row, number, number + 1, owner);
+    }
+
+    /**
+     * Markerer sæderne [from, to) i rækken som optagne af bookingen uden yderligere kontrol.
+     */
+    public void bookRange(int row, int from, int to, String bookingId) {
+        long[] expected = newRowBuffer();
+        long[] update = newRowBuffer();
+        do {
+            readRow(row, expected);
+            for (int w = 0; w < wordsPerRow; w++) {
+                update[w] = expected[w] | SeatBits.rangeInWord(w, from, to);
+            }
+        } while (!compareAndSetRow(row, expected, update));
+        assignBookingId(row, from, to, bookingId);
+    }
+
+    /**
+     * Frigiver de af sæderne [from, to) som bookingen eller holdet owner ejer. Sæder med en
+     * anden ejer røres ikke, så en forældet annullering aldrig frigiver en andens sæder.
+     * Returnerer antallet af frigivne sæder.
+     */
+    public int releaseRange(int row, int from, int to, String owner) {
+        long[] owned = newRowBuffer();
+        int count = 0;
+        for (int s = from; s < to; s++) {
+            String current = bookingIds.get(row * seatsPerRow + s);
+            if (owner.equals(current) && bookingIds.compareAndSet(row * seatsPerRow + s, current, null)) {
+                owned[s >>> 6] |= 1L << s;
+                count++;
+            }
+        }
+        if (count > 0) releaseSeats(row, owned);
+        return count;
+    }
+
+    /**
+     * Frigiver alle sæder uanset ejer. Hver række tømmes atomisk, men ikke hele salen på én
+     * gang; kalderen skal udelukke samtidige bookinger.
+     */
+    public void clear() {
+        long[] all = newRowBuffer();
+        for (int w = 0; w < wordsPerRow; w++) {
+            all[w] = SeatBits.rangeInWord(w, 0, seatsPerRow);
+        }
+        for (int r = 0; r < rows; r++) {
+            assignBookingId(r, 0, seatsPerRow, null);
+            releaseSeats(r, all);
+        }
+    }
+
+    /**
+     * Fjerner hold-markeringen og belægningen for sæderne i mask. Faste bits bevares.
+     */
+    private void releaseSeats(int row, long[] mask) {
+        boolean heldChanged = false;
+        for (int w = 0; w < wordsPerRow; w++) {
+            if (mask[w] == 0) continue;
+            long old = held.getAndAccumulate(row * wordsPerRow + w, ~mask[w], (a, b) -> a & b);
+            long changed = mask[w] & old;
+            if (changed != 0) {
+                heldSeats.add(-Long.bitCount(changed));
+                holdVersion.incrementAndGet();
+                version.increment();
+                heldChanged = true;
+            }
+        }
+        if (heldChanged) fireChanged(row);
+
+        long[] expected = newRowBuffer();
+        long[] update = newRowBuffer();
+        do {
+            readRow(row, expected);
+            for (int w = 0; w < wordsPerRow; w++) {
+                update[w] = expected[w] & ~(mask[w] & ~fixedWords[row * wordsPerRow + w]);
+            }
+        } while (!compareAndSetRow(row, expected, update));
+    }
+
+    /**
+     * Rækkens ledige sekvenser. Indekset genbruges så længe rækken ikke er ændret.
+     */
+    public FreeRuns getFreeRuns(int row) {
+        FreeRuns runs = freeRuns.get(row);
+        if (runs != null && isCurrent(row, runs)) {
+            return runs;
+        }
+        long[] words = newRowBuffer();
+        readRow(row, words);
+        runs = FreeRuns.of(words, seatsPerRow, loneSeats[row]);
+        freeRuns.set(row, runs);
+        return runs;
+    }
+
+    public int getIsolatedSeats(int row) {
+        return getFreeRuns(row).getIsolatedSeats();
+    }
+
+    private boolean isCurrent(int row, FreeRuns runs) {
+        for (int w = 0; w < wordsPerRow; w++) {
+            if (runs.getWord(w) != occupancy.get(row * wordsPerRow + w)) return false;
+        }
+        return true;
+    }
+
+    private long[] emptyRow(int row) {
+        return Arrays.copyOfRange(fixedWords, row * wordsPerRow, (row + 1) * wordsPerRow);
+    }
+
+    private int countIsolated(int row, long[] words) {
+        long[] lone = loneSeats[row];
+        int count = 0;
+        long prev = -1L;
+        for (int w = 0; w < words.length; w++) {
+            long next = w + 1 < words.length ? words[w + 1] : -1L;
+            long isolated = SeatBits.isolated(prev, words[w], next);
+            count += Long.bitCount(lone.length == 0 ? isolated : isolated & ~lone[w]);
+            prev = words[w];
+        }
+        return count;
+    }
+
+    private static long[] isolatedIn(long[] words) {
+        long[] isolated = new long[words.length];
+        long prev = -1L;
+        for (int w = 0; w < words.length; w++) {
+            long next = w + 1 < words.length ? words[w + 1] : -1L;
+            isolated[w] = SeatBits.isolated(prev, words[w], next);
+            prev = words[w];
+        }
+        return isolated;
+    }
+
+    private static boolean isEmpty(long[] words) {
+        for (long word : words) {
+            if (word != 0) return false;
+        }
+        return true;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,90 @@
+package dk.cinema.model;
+
+import java.util.Arrays;
+
+/**
+ * Uforanderligt indeks over en rækkes maksimale ledige sekvenser (start, længde),
+ * bygget ud fra de rækkeord det stammer fra. Et isoleret sæde er en sekvens af længde 1,
+ * medmindre sædet står alene mellem to faste kanter (gange, spærrede pladser, rækkens ender).
+ */
+public final class FreeRuns {
+    private static final long[] NO_LONE_SEATS = new long[0];
+
+    private final long[] words;
+    private final long[] loneSeats;
+    private final int[] runs;
+    private final int count;
+    private final int isolatedSeats;
+
+    private FreeRuns(long[] words, long[] loneSeats, int[] runs, int count, int isolatedSeats) {
+        this.words = words;
+        this.loneSeats = loneSeats;
+        this.runs = runs;
+        this.count = count;
+        this.isolatedSeats = isolatedSeats;
+    }
+
+    /**
+     * Bygger indekset ud fra rækkeord hvor bits efter rækkens sidste sæde er sat.
+     */
+    public static FreeRuns of(long[] words, int seatsPerRow) {
+        return of(words, seatsPerRow, NO_LONE_SEATS);
+    }
+
+    /**
+     * Som of(words, seatsPerRow), hvor sæderne i loneSeats står alene mellem faste kanter
+     * og ikke tælles som isolerede. loneSeats er tom eller har ét ord pr. rækkeord.
+     */
+    public static FreeRuns of(long[] words, int seatsPerRow, long[] loneSeats) {
+        int[] runs = new int[8];
+        int count = 0;
+        int isolated = 0;
+        int start = nextFree(words, 0, seatsPerRow);
+        while (start < seatsPerRow) {
+            int end = nextOccupied(words, start, seatsPerRow);
+            if ((count << 1) + 2 > runs.length) {
+                runs = Arrays.copyOf(runs, runs.length << 1);
+            }
+            runs[count << 1] = start;
+            runs[(count << 1) + 1] = end - start;
+            count++;
+            if (end - start == 1 && !isLone(loneSeats, start)) isolated++;
+            start = nextFree(words, end, seatsPerRow);
+        }
+        return new FreeRuns(words.clone(), loneSeats, runs, count, isolated);
+    }
+
+    public int getCount() { return count; }
+    public int getStart(int run) { return runs[run << 1]; }
+    public int getLength(int run) { return runs[(run << 1) + 1]; }
+    public int getIsolatedSeats() { return isolatedSeats; }
+
+    /**
+     * Sand hvis sekvensen er ét isoleret sæde der tælles med i getIsolatedSeats().
+     */
+    public boolean isIsolated(int run) {
+        return getLength(run) == 1 && !isLone(loneSeats, getStart(run));
+    }
+
+    long getWord(int word) { return words[word]; }
+
+    private static boolean isLone(long[] loneSeats, int seat) {
+        return loneSeats.length != 0 && (loneSeats[seat >>> 6] & (1L << seat)) != 0;
+    }
+
+    private static int nextFree(long[] words, int from, int seatsPerRow) {
+        for (int w = from >>> 6; w < words.length; w++) {
+            long free = ~words[w] & (w == from >>> 6 ? -1L << from : -1L);
+            if (free != 0) return (w << 6) + Long.numberOfTrailingZeros(free);
+        }
+        return seatsPerRow;
+    }
+
+    private static int nextOccupied(long[] words, int from, int seatsPerRow) {
+        for (int w = from >>> 6; w < words.length; w++) {
+            long occupied = words[w] & (w == from >>> 6 ? -1L << from : -1L);
+            if (occupied != 0) return (w << 6) + Long.numberOfTrailingZeros(occupied);
+        }
+        return seatsPerRow;
+    }
+}
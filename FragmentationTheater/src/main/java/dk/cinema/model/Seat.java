@@ -1,30 +1,32 @@
 package dk.cinema.model;
 
+/**
+ * Visning af ét sæde i en sal. Tilstanden ligger i salens bits og læses ved hvert kald.
+ */
 public class Seat {
+    private final CinemaHall hall;
     private final int row;
     private final int number;
-    private boolean occupied;
-    private String bookingId;
 
-    public Seat(int row, int number) {
+    public Seat(CinemaHall hall, int row, int number) {
+        this.hall = hall;
         this.row = row;
         this.number = number;
-        this.occupied = false;
     }
 
     public int getRow() { return row; }
     public int getNumber() { return number; }
-    public boolean isOccupied() { return occupied; }
-    public String getBookingId() { return bookingId; }
+    public int getCode() { return hall.seatCode(row, number); }
+    public boolean isOccupied() { return hall.isOccupied(row, number); }
+    public boolean isHeld() { return hall.isHeld(row, number); }
+    public String getBookingId() { return hall.getBookingId(row, number); }
 
     public void book(String bookingId) {
-        this.occupied = true;
-        this.bookingId = bookingId;
+        hall.book(row, number, bookingId);
     }
 
     public void release() {
-        this.occupied = false;
-        this.bookingId = null;
+        hall.release(row, number);
     }
 
     public String getId() {
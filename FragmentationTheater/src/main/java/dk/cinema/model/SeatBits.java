@@ -0,0 +1,36 @@
+package dk.cinema.model;
+
+/**
+ * Bitoperationer på rækkeord. Bit i i ord k svarer til sæde k * 64 + i i rækken.
+ */
+public final class SeatBits {
+    public static final int WORD_BITS = 64;
+
+    private SeatBits() {}
+
+    public static int wordsFor(int seats) {
+        return (seats + WORD_BITS - 1) >>> 6;
+    }
+
+    /**
+     * Bits for sæderne [from, to) der falder i ord nummer word.
+     */
+    public static long rangeInWord(int word, int from, int to) {
+        int base = word << 6;
+        int lo = Math.max(from, base) - base;
+        int hi = Math.min(to, base + WORD_BITS) - base;
+        if (lo >= hi) return 0L;
+        long upper = hi == WORD_BITS ? -1L : (1L << hi) - 1;
+        return upper & (-1L << lo);
+    }
+
+    /**
+     * Ledige sæder i cur hvis begge naboer er optagne. prev og next er nabo-ordene,
+     * og -1L bruges uden for rækken, så rækkens ender tæller som optagne naboer.
+     */
+    public static long isolated(long prev, long cur, long next) {
+        long leftOccupied = (cur << 1) | (prev >>> 63);
+        long rightOccupied = (cur >>> 1) | (next << 63);
+        return ~cur & leftOccupied & rightOccupied;
+    }
+}
@@ -0,0 +1,21 @@
+package dk.cinema.model;
+
+/**
+ * Sammenhængende sæder [start, start + length) i én række.
+ */
+public final class SeatBlock {
+    private final int row;
+    private final int start;
+    private final int length;
+
+    public SeatBlock(int row, int start, int length) {
+        this.row = row;
+        this.start = start;
+        this.length = length;
+    }
+
+    public int getRow() { return row; }
+    public int getStart() { return start; }
+    public int getLength() { return length; }
+    public int getEnd() { return start + length; }
+}
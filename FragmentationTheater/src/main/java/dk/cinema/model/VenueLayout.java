@@ -0,0 +1,366 @@
+package dk.cinema.model;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Et spillesteds opbygning: sektioner med rækker af forskellig længde, gange, manglende
+ * eller spærrede pladser og kørestolspladser. Rækkerne nummereres fortløbende på tværs af
+ * sektionerne og lægges i et gitter så bredt som den længste række, så CinemaHall kan
+ * bruge de samme rækkeord som for en rektangulær sal. Pladser i gitteret der ikke er
+ * sæder, er altid optagne og virker derfor som rækkens ender i alle regler.
+ *
+ * Hver sektion gemmer rækkelængderne i et int-array og gange, spærrede pladser og
+ * kørestolspladser som bitmasker med wordsPerRow ord pr. række; der oprettes intet
+ * objekt pr. sæde.
+ *
+ * Filformat, én instruktion pr. linje; # indleder en kommentar:
+ * <pre>
+ * venue Arena Nord
+ * section A
+ * row 20o_30o_20o
+ * rows 40 2x18o_30o_18o2w
+ * </pre>
+ * "row" tilføjer én række og "rows N" N ens rækker. Mønsteret er tegn med et valgfrit
+ * antal foran: o er et sæde, w en kørestolsplads, x en manglende eller spærret plads og
+ * _ en gang. Rækken slutter efter sidste tegn.
+ */
+public final class VenueLayout {
+    private static final long MAX_POSITIONS = 16_000_000L;
+
+    /**
+     * Største gitter for en opbygning der sendes med en request; store spillesteder
+     * læses fra en fil ved opstart.
+     */
+    public static final long MAX_INLINE_POSITIONS = 50_000L;
+    private static final int MAX_ROW_LENGTH = 4096;
+
+    private final String name;
+    private final List<Section> sections;
+    private final int[] sectionStarts;
+    private final int rows;
+    private final int width;
+    private final int wordsPerRow;
+    private final int totalSeats;
+
+    private VenueLayout(String name, List<Section> sections, int width) {
+        this.name = name;
+        this.sections = Collections.unmodifiableList(sections);
+        this.sectionStarts = new int[sections.size()];
+        int rowCount = 0;
+        int seats = 0;
+        for (int i = 0; i < sections.size(); i++) {
+            sectionStarts[i] = rowCount;
+            rowCount += sections.get(i).getRowCount();
+            seats += sections.get(i).getSeatCount();
+        }
+        this.rows = rowCount;
+        this.width = width;
+        this.wordsPerRow = SeatBits.wordsFor(width);
+        this.totalSeats = seats;
+    }
+
+    /**
+     * En rektangulær sal uden gange: én unavngiven sektion med rows rækker af seatsPerRow sæder.
+     */
+    public static VenueLayout rectangular(int rows, int seatsPerRow) {
+        int[] lengths = new int[rows];
+        Arrays.fill(lengths, seatsPerRow);
+        int words = rows * SeatBits.wordsFor(seatsPerRow);
+        Section section = new Section("", 0, lengths, new long[words], new long[words], new long[words],
+                rows * seatsPerRow);
+        return new VenueLayout("", new ArrayList<>(List.of(section)), seatsPerRow);
+    }
+
+    public static VenueLayout load(Path file) throws IOException {
+        return parse(Files.readString(file, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Læser en opbygning i filformatet. Kaster IllegalArgumentException med linjenummeret
+     * ved fejl.
+     */
+    public static VenueLayout parse(String text) {
+        return parse(text, MAX_POSITIONS);
+    }
+
+    /**
+     * Som parse(text), men afviser opbygninger hvis gitter (rækker gange længste række)
+     * har mere end maxPositions pladser.
+     */
+    public static VenueLayout parse(String text, long maxPositions) {
+        String venueName = "";
+        List<String> sectionNames = new ArrayList<>();
+        List<List<char[]>> sectionRows = new ArrayList<>();
+        int width = 0;
+        long rowCount = 0;
+
+        String[] lines = text.split("\r?\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
+            int hash = line.indexOf('#');
+            if (hash >= 0) line = line.substring(0, hash);
+            line = line.trim();
+            if (line.isEmpty()) continue;
+
+            String[] parts = line.split("\\s+", 2);
+            String keyword = parts[0];
+            String argument = parts.length > 1 ? parts[1].trim() : "";
+            try {
+                switch (keyword) {
+                    case "venue":
+                        venueName = argument;
+                        break;
+                    case "section":
+                        if (argument.isEmpty()) throw new IllegalArgumentException("sektionen mangler et navn");
+                        sectionNames.add(argument);
+                        sectionRows.add(new ArrayList<>());
+                        break;
+                    case "row":
+                    case "rows":
+                        if (sectionRows.isEmpty()) throw new IllegalArgumentException("rækker før første section");
+                        int count = 1;
+                        String pattern = argument;
+                        if (keyword.equals("rows")) {
+                            String[] countAndPattern = argument.split("\\s+", 2);
+                            count = Integer.parseInt(countAndPattern[0]);
+                            pattern = countAndPattern.length > 1 ? countAndPattern[1] : "";
+                            if (count < 1) throw new IllegalArgumentException("antallet af rækker skal være positivt");
+                        }
+                        char[] row = expand(pattern);
+                        width = Math.max(width, row.length);
+                        rowCount += count;
+                        if (rowCount * width > maxPositions) {
+                            throw new IllegalArgumentException("spillestedet er for stort");
+                        }
+                        List<char[]> target = sectionRows.get(sectionRows.size() - 1);
+                        for (int r = 0; r < count; r++) {
+                            target.add(row);
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException("ukendt instruktion '" + keyword + "'");
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Linje " + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+
+        List<Section> sections = new ArrayList<>(sectionNames.size());
+        int firstRow = 0;
+        int seats = 0;
+        for (int i = 0; i < sectionNames.size(); i++) {
+            if (sectionRows.get(i).isEmpty()) {
+                throw new IllegalArgumentException("Sektionen " + sectionNames.get(i) + " har ingen rækker");
+            }
+            Section section = Section.of(sectionNames.get(i), firstRow, sectionRows.get(i), width);
+            sections.add(section);
+            firstRow += section.getRowCount();
+            seats += section.getSeatCount();
+        }
+        if (seats == 0) {
+            throw new IllegalArgumentException("Spillestedet har ingen sæder");
+        }
+        return new VenueLayout(venueName, sections, width);
+    }
+
+    /**
+     * Udfolder "20o_3x" til én plads pr. tegn.
+     */
+    private static char[] expand(String pattern) {
+        StringBuilder row = new StringBuilder();
+        int count = -1;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c >= '0' && c <= '9') {
+                count = (count < 0 ? 0 : count * 10) + (c - '0');
+                if (count > MAX_ROW_LENGTH) throw new IllegalArgumentException("rækken er for lang");
+                continue;
+            }
+            if (c != 'o' && c != 'w' && c != 'x' && c != '_') {
+                throw new IllegalArgumentException("ukendt tegn '" + c + "' i rækken");
+            }
+            for (int n = count < 0 ? 1 : count; n > 0; n--) {
+                row.append(c);
+            }
+            if (row.length() > MAX_ROW_LENGTH) throw new IllegalArgumentException("rækken er for lang");
+            count = -1;
+        }
+        if (count >= 0) throw new IllegalArgumentException("antal uden tegn i slutningen af rækken");
+        if (row.length() == 0) throw new IllegalArgumentException("tom række");
+        return row.toString().toCharArray();
+    }
+
+    /**
+     * Skriver opbygningen i filformatet, så parse(toText()) giver den samme opbygning.
+     * Ens rækker efter hinanden skrives som én "rows"-linje. Den unavngivne sektion i en
+     * rektangulær sal fra rectangular() kan ikke skrives.
+     */
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        if (!name.isEmpty()) {
+            text.append("venue ").append(name).append('\n');
+        }
+        for (Section section : sections) {
+            if (section.name.isEmpty()) {
+                throw new IllegalStateException("En unavngiven sektion kan ikke skrives i filformatet");
+            }
+            text.append("section ").append(section.name).append('\n');
+            int r = 0;
+            while (r < section.getRowCount()) {
+                String pattern = section.pattern(r, wordsPerRow);
+                int count = 1;
+                while (r + count < section.getRowCount() && section.pattern(r + count, wordsPerRow).equals(pattern)) {
+                    count++;
+                }
+                if (count == 1) {
+                    text.append("row ").append(pattern).append('\n');
+                } else {
+                    text.append("rows ").append(count).append(' ').append(pattern).append('\n');
+                }
+                r += count;
+            }
+        }
+        return text.toString();
+    }
+
+    public String getName() { return name; }
+    public List<Section> getSections() { return sections; }
+    public int getRows() { return rows; }
+    public int getWidth() { return width; }
+    public int getTotalSeats() { return totalSeats; }
+
+    /**
+     * Sand hvis opbygningen er en rektangulær sal uden gange eller spærrede pladser.
+     */
+    public boolean isRectangular() {
+        return totalSeats == rows * width;
+    }
+
+    public Section sectionOf(int row) {
+        int index = Arrays.binarySearch(sectionStarts, row);
+        return sections.get(index >= 0 ? index : -index - 2);
+    }
+
+    /**
+     * Pladserne i ord nummer word af rækken der ikke er sæder: gange, spærrede pladser og
+     * pladserne efter rækkens sidste sæde, op til gitterets bredde.
+     */
+    public long getBlockedWord(int row, int word) {
+        Section section = sectionOf(row);
+        return section.blocked[(row - section.firstRow) * wordsPerRow + word];
+    }
+
+    public boolean isSeat(int row, int number) {
+        return (getBlockedWord(row, number >>> 6) & (1L << number)) == 0;
+    }
+
+    public boolean isAisle(int row, int number) {
+        Section section = sectionOf(row);
+        return (section.aisles[(row - section.firstRow) * wordsPerRow + (number >>> 6)] & (1L << number)) != 0;
+    }
+
+    public boolean isWheelchair(int row, int number) {
+        Section section = sectionOf(row);
+        return (section.wheelchair[(row - section.firstRow) * wordsPerRow + (number >>> 6)] & (1L << number)) != 0;
+    }
+
+    /**
+     * Rækkens navn til brugeren, fx "A 3" for tredje række i sektion A.
+     */
+    public String getRowLabel(int row) {
+        Section section = sectionOf(row);
+        String number = String.valueOf(row - section.firstRow + 1);
+        return section.name.isEmpty() ? number : section.name + " " + number;
+    }
+
+    /**
+     * En sektion af på hinanden følgende rækker.
+     */
+    public static final class Section {
+        private final String name;
+        private final int firstRow;
+        private final int[] rowLengths;
+        private final long[] blocked;
+        private final long[] aisles;
+        private final long[] wheelchair;
+        private final int seatCount;
+
+        private Section(String name, int firstRow, int[] rowLengths, long[] blocked, long[] aisles,
+                        long[] wheelchair, int seatCount) {
+            this.name = name;
+            this.firstRow = firstRow;
+            this.rowLengths = rowLengths;
+            this.blocked = blocked;
+            this.aisles = aisles;
+            this.wheelchair = wheelchair;
+            this.seatCount = seatCount;
+        }
+
+        private static Section of(String name, int firstRow, List<char[]> rows, int width) {
+            int wordsPerRow = SeatBits.wordsFor(width);
+            int[] lengths = new int[rows.size()];
+            long[] blocked = new long[rows.size() * wordsPerRow];
+            long[] aisles = new long[blocked.length];
+            long[] wheelchair = new long[blocked.length];
+            int seats = 0;
+            for (int r = 0; r < rows.size(); r++) {
+                char[] row = rows.get(r);
+                lengths[r] = row.length;
+                int base = r * wordsPerRow;
+                for (int s = 0; s < width; s++) {
+                    char c = s < row.length ? row[s] : 'x';
+                    long bit = 1L << s;
+                    if (c == 'o' || c == 'w') {
+                        seats++;
+                        if (c == 'w') wheelchair[base + (s >>> 6)] |= bit;
+                    } else {
+                        blocked[base + (s >>> 6)] |= bit;
+                        if (c == '_') aisles[base + (s >>> 6)] |= bit;
+                    }
+                }
+            }
+            return new Section(name, firstRow, lengths, blocked, aisles, wheelchair, seats);
+        }
+
+        /**
+         * Rækkens mønster med antal foran gentagne tegn, fx "20o_3x".
+         */
+        private String pattern(int row, int wordsPerRow) {
+            StringBuilder pattern = new StringBuilder();
+            int base = row * wordsPerRow;
+            int s = 0;
+            while (s < rowLengths[row]) {
+                char c = charAt(base, s);
+                int run = 1;
+                while (s + run < rowLengths[row] && charAt(base, s + run) == c) {
+                    run++;
+                }
+                if (run > 1) pattern.append(run);
+                pattern.append(c);
+                s += run;
+            }
+            return pattern.toString();
+        }
+
+        private char charAt(int base, int s) {
+            long bit = 1L << s;
+            int word = base + (s >>> 6);
+            if ((blocked[word] & bit) != 0) return (aisles[word] & bit) != 0 ? '_' : 'x';
+            return (wheelchair[word] & bit) != 0 ? 'w' : 'o';
+        }
+
+        public String getName() { return name; }
+        public int getFirstRow() { return firstRow; }
+        public int getRowCount() { return rowLengths.length; }
+        public int getSeatCount() { return seatCount; }
+
+        /**
+         * Længden af sektionens row'te række, gange og spærrede pladser medregnet.
+         */
+        public int getRowLength(int row) { return rowLengths[row]; }
+    }
+}
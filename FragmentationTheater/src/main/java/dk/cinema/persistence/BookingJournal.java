@@ -0,0 +1,266 @@
+package dk.cinema.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal over bookinger, annulleringer og nulstillinger for én sal.
+ *
+ * Hændelser skrives som poster af fast længde med en CRC32 til sidst. Kaldere lægger
+ * kun posten i en buffer i hukommelsen; en flusher-tråd skriver alt hvad der er samlet
+ * sig op og kalder force én gang for hele bunken (group commit). Så bookSeats aldrig
+ * venter på disken, og en bunke på tusind hændelser koster stadig kun én fsync.
+ *
+ * Ved åbning læses filen via mmap, og en afkortet eller beskadiget hale skæres væk,
+ * så en crash midt i en skrivning ikke forhindrer genstart.
+ */
+public final class BookingJournal implements Closeable {
+    public static final byte BOOK = 1;
+    public static final byte CANCEL = 2;
+    public static final byte RESET = 3;
+
+    /** type, række, start, længde, id (to longs), CRC32. */
+    static final int RECORD_BYTES = 1 + 4 + 4 + 4 + 16 + 4;
+
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+
+    private final FileChannel channel;
+    private final Thread flusher;
+    private ByteBuffer active = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    private long appended;
+    private long durable;
+    private long position;
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * Modtager hændelserne fra journalen i den rækkefølge de blev skrevet.
+     */
+    public interface Listener {
+        void onBook(String bookingId, int row, int start, int length);
+        void onCancel(String bookingId);
+        void onReset();
+    }
+
+    private BookingJournal(Path file, FileChannel channel, long position) {
+        this.channel = channel;
+        this.position = position;
+        this.flusher = new Thread(this::runFlusher, "journal-" + file.getFileName());
+        this.flusher.setDaemon(true);
+    }
+
+    /**
+     * Åbner (eller opretter) journalen, afspiller dens hændelser til listener og
+     * returnerer en journal der er klar til at skrive videre fra den sidste gyldige post.
+     */
+    public static BookingJournal open(Path file, Listener listener) throws IOException {
+        return open(file, 0, listener);
+    }
+
+    /**
+     * Som open, men afspiller kun poster fra fromPosition og frem, fx efter et snapshot.
+     */
+    public static BookingJournal open(Path file, long fromPosition, Listener listener) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long valid = replay(channel, fromPosition, listener);
+            if (valid < channel.size()) {
+                channel.truncate(valid);
+                channel.force(true);
+            }
+            channel.position(valid);
+            BookingJournal journal = new BookingJournal(file, channel, valid);
+            journal.flusher.start();
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public void appendBook(String bookingId, int row, int start, int length) {
+        append(BOOK, bookingId, row, start, length);
+    }
+
+    public void appendCancel(String bookingId) {
+        append(CANCEL, bookingId, 0, 0, 0);
+    }
+
+    public void appendReset() {
+        append(RESET, null, 0, 0, 0);
+    }
+
+    /**
+     * False hvis flusheren har fejlet eller journalen er lukket; så kaster append.
+     */
+    public synchronized boolean isWritable() {
+        return failure == null && !closed;
+    }
+
+    /**
+     * Journalens længde i bytes inklusive poster der endnu ikke er skrevet til disken.
+     */
+    public synchronized long position() {
+        return position;
+    }
+
+    /**
+     * Venter til alle poster der er tilføjet indtil nu, er skrevet og synkroniseret til disken.
+     */
+    public synchronized void sync() throws IOException {
+        long target = appended;
+        boolean interrupted = false;
+        while (durable < target && failure == null && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (failure != null) throw failure;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        synchronized (this) {
+            if (failure != null) throw failure;
+        }
+    }
+
+    private synchronized void append(byte type, String bookingId, int row, int start, int length) {
+        if (failure != null) throw new UncheckedIOException(failure);
+        if (closed) throw new IllegalStateException("Journalen er lukket");
+
+        if (active.remaining() < RECORD_BYTES) {
+            ByteBuffer grown = ByteBuffer.allocate(active.capacity() << 1);
+            active.flip();
+            grown.put(active);
+            active = grown;
+        }
+
+        int begin = active.position();
+        active.put(type).putInt(row).putInt(start).putInt(length);
+        if (bookingId == null) {
+            active.putLong(0).putLong(0);
+        } else {
+            UUID id = UUID.fromString(bookingId);
+            active.putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+        }
+        active.putInt(crc(active.array(), begin, RECORD_BYTES - 4));
+
+        appended++;
+        position += RECORD_BYTES;
+        if (begin == 0) notifyAll();
+    }
+
+    private void runFlusher() {
+        while (true) {
+            ByteBuffer batch;
+            long batchEnd;
+            synchronized (this) {
+                while (active.position() == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (active.position() == 0) return;
+
+                batch = active;
+                active = spare;
+                spare = null;
+                batchEnd = appended;
+            }
+
+            batch.flip();
+            IOException error = null;
+            try {
+                while (batch.hasRemaining()) {
+                    channel.write(batch);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                error = e;
+            }
+            batch.clear();
+
+            synchronized (this) {
+                spare = batch;
+                if (error != null) {
+                    failure = error;
+                    notifyAll();
+                    return;
+                }
+                durable = batchEnd;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Afspiller poster fra fromPosition og returnerer positionen efter den sidste gyldige post.
+     */
+    private static long replay(FileChannel channel, long fromPosition, Listener listener) throws IOException {
+        long size = channel.size();
+        long records = Math.max(0, size - fromPosition) / RECORD_BYTES;
+        if (records == 0) return Math.min(fromPosition, size);
+
+        MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, fromPosition, records * RECORD_BYTES);
+        byte[] record = new byte[RECORD_BYTES];
+        ByteBuffer fields = ByteBuffer.wrap(record);
+        for (long i = 0; i < records; i++) {
+            map.get(record);
+            fields.clear();
+            if (fields.getInt(RECORD_BYTES - 4) != crc(record, 0, RECORD_BYTES - 4)) {
+                return fromPosition + i * RECORD_BYTES;
+            }
+
+            byte type = fields.get();
+            int row = fields.getInt();
+            int start = fields.getInt();
+            int length = fields.getInt();
+            String bookingId = new UUID(fields.getLong(), fields.getLong()).toString();
+            switch (type) {
+                case BOOK: listener.onBook(bookingId, row, start, length); break;
+                case CANCEL: listener.onCancel(bookingId); break;
+                case RESET: listener.onReset(); break;
+                default: return fromPosition + i * RECORD_BYTES;
+            }
+        }
+        return fromPosition + records * RECORD_BYTES;
+    }
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+}
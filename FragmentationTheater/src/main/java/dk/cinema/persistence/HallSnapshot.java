@@ -0,0 +1,166 @@
+package dk.cinema.persistence;
+
+import dk.cinema.model.SeatBits;
+import dk.cinema.model.SeatBlock;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Binært øjebliksbillede af en sals bookinger og den journalposition det svarer til.
+ *
+ * Format (version 1, big-endian):
+ * magic, version, rows, seatsPerRow, wordsPerRow, journalPosition, totalBookings,
+ * cancelledBookings, belægningsord (rows × wordsPerRow longs), antal bookinger og
+ * for hver booking id (to longs), række, start og længde, og til sidst en CRC32 af
+ * alt det foregående. Belægningsordene har bits sat efter rækkens sidste sæde, ligesom
+ * i CinemaHall.
+ *
+ * Filen skrives til en midlertidig fil og flyttes på plads, så et halvt skrevet
+ * snapshot aldrig erstatter det forrige.
+ */
+public final class HallSnapshot {
+    private static final int MAGIC = 0x4654534E;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 * 5 + 8 + 4 * 2;
+    private static final int BOOKING_BYTES = 16 + 4 * 3;
+
+    private final int rows;
+    private final int seatsPerRow;
+    private final long journalPosition;
+    private final int totalBookings;
+    private final int cancelledBookings;
+    private final long[] words;
+    private final Map<String, SeatBlock> bookings;
+
+    public HallSnapshot(int rows, int seatsPerRow, long journalPosition, int totalBookings,
+                        int cancelledBookings, Map<String, SeatBlock> bookings) {
+        this(rows, seatsPerRow, journalPosition, totalBookings, cancelledBookings,
+                packBookings(rows, seatsPerRow, bookings.values()), bookings);
+    }
+
+    private HallSnapshot(int rows, int seatsPerRow, long journalPosition, int totalBookings,
+                         int cancelledBookings, long[] words, Map<String, SeatBlock> bookings) {
+        this.rows = rows;
+        this.seatsPerRow = seatsPerRow;
+        this.journalPosition = journalPosition;
+        this.totalBookings = totalBookings;
+        this.cancelledBookings = cancelledBookings;
+        this.words = words;
+        this.bookings = bookings;
+    }
+
+    public int getRows() { return rows; }
+    public int getSeatsPerRow() { return seatsPerRow; }
+    public long getJournalPosition() { return journalPosition; }
+    public int getTotalBookings() { return totalBookings; }
+    public int getCancelledBookings() { return cancelledBookings; }
+    public Map<String, SeatBlock> getBookings() { return bookings; }
+
+    /**
+     * Kopierer rækkens belægningsord til dest.
+     */
+    public void readRow(int row, long[] dest) {
+        System.arraycopy(words, row * dest.length, dest, 0, dest.length);
+    }
+
+    public void writeTo(Path file) throws IOException {
+        int wordsPerRow = SeatBits.wordsFor(seatsPerRow);
+        int size = HEADER_BYTES + words.length * 8 + 4 + bookings.size() * BOOKING_BYTES + 4;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(seatsPerRow).putInt(wordsPerRow)
+                .putLong(journalPosition).putInt(totalBookings).putInt(cancelledBookings);
+        for (long word : words) {
+            buffer.putLong(word);
+        }
+        buffer.putInt(bookings.size());
+        for (Map.Entry<String, SeatBlock> entry : bookings.entrySet()) {
+            UUID id = UUID.fromString(entry.getKey());
+            SeatBlock block = entry.getValue();
+            buffer.putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits())
+                    .putInt(block.getRow()).putInt(block.getStart()).putInt(block.getLength());
+        }
+        buffer.putInt(crc(buffer, 0, buffer.position()));
+        buffer.flip();
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Indlæser et snapshot via mmap. Returnerer null hvis filen mangler, har en anden
+     * version eller er beskadiget, så kalderen kan falde tilbage til hele journalen.
+     */
+    public static HallSnapshot load(Path file) throws IOException {
+        if (!Files.exists(file)) return null;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + 8 || size > Integer.MAX_VALUE) return null;
+
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) return null;
+            if (map.getInt((int) size - 4) != crc(map, 0, (int) size - 4)) return null;
+
+            map.position(8);
+            int rows = map.getInt();
+            int seatsPerRow = map.getInt();
+            int wordsPerRow = map.getInt();
+            long journalPosition = map.getLong();
+            int totalBookings = map.getInt();
+            int cancelledBookings = map.getInt();
+
+            long[] words = new long[rows * wordsPerRow];
+            map.asLongBuffer().get(words);
+            map.position(map.position() + words.length * 8);
+
+            int count = map.getInt();
+            Map<String, SeatBlock> bookings = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String id = new UUID(map.getLong(), map.getLong()).toString();
+                bookings.put(id, new SeatBlock(map.getInt(), map.getInt(), map.getInt()));
+            }
+            return new HallSnapshot(rows, seatsPerRow, journalPosition, totalBookings,
+                    cancelledBookings, words, bookings);
+        }
+    }
+
+    private static long[] packBookings(int rows, int seatsPerRow, Collection<SeatBlock> blocks) {
+        int wordsPerRow = SeatBits.wordsFor(seatsPerRow);
+        long[] words = new long[rows * wordsPerRow];
+        for (int r = 0; r < rows; r++) {
+            for (int w = 0; w < wordsPerRow; w++) {
+                words[r * wordsPerRow + w] = ~SeatBits.rangeInWord(w, 0, seatsPerRow);
+            }
+        }
+        for (SeatBlock block : blocks) {
+            for (int w = 0; w < wordsPerRow; w++) {
+                words[block.getRow() * wordsPerRow + w] |= SeatBits.rangeInWord(w, block.getStart(), block.getEnd());
+            }
+        }
+        return words;
+    }
+
+    private static int crc(ByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset).limit(offset + length);
+        crc.update(slice);
+        return (int) crc.getValue();
+    }
+}
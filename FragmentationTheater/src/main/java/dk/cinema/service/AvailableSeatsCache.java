@@ -0,0 +1,93 @@
+package dk.cinema.service;
+
+import dk.cinema.model.CinemaHall;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Cache over de gyldige sæder pr. gruppestørrelse. Et opslag ved uændret sædeversion er
+ * ét opslag i et array indekseret med gruppestørrelsen. Er salen ændret, genbruges
+ * resultatet for hver række hvis rækkens version er den samme, så kun de ændrede rækker
+ * beregnes igen. Skifter "sidste udvej" (som afhænger af hele salen), beregnes alle rækker.
+ *
+ * Poster er uforanderlige og erstattes i deres helhed; en læser ser altid en hel post.
+ */
+final class AvailableSeatsCache {
+    private static final int[] NONE = new int[0];
+
+    interface RowSeats {
+        int[] seatCodesInRow(int row, int partySize, boolean isLastResort);
+    }
+
+    private final CinemaHall hall;
+    private final RowSeats rowSeats;
+    private final AtomicReferenceArray<Entry> entries;
+
+    AvailableSeatsCache(CinemaHall hall, RowSeats rowSeats) {
+        this.hall = hall;
+        this.rowSeats = rowSeats;
+        this.entries = new AtomicReferenceArray<>(hall.getSeatsPerRow() + 1);
+    }
+
+    /**
+     * De gyldige sæder som stigende sædekoder, for 1 <= partySize <= seatsPerRow. Arrayet
+     * deles mellem kaldere og må ikke ændres.
+     */
+    int[] get(int partySize, boolean isLastResort) {
+        long version = hall.getSeatVersion();
+        Entry entry = entries.get(partySize);
+        if (entry != null && entry.version == version && entry.lastResort == isLastResort) {
+            return entry.codes;
+        }
+
+        Entry updated = build(partySize, isLastResort, version,
+                entry != null && entry.lastResort == isLastResort ? entry : null);
+        Entry current;
+        do {
+            current = entries.get(partySize);
+            if (current != null && current.version > updated.version) break;
+        } while (!entries.compareAndSet(partySize, current, updated));
+        return updated.codes;
+    }
+
+    private Entry build(int partySize, boolean isLastResort, long version, Entry previous) {
+        int rows = hall.getRows();
+        long[] rowVersions = new long[rows];
+        int[][] perRow = new int[rows][];
+        int total = 0;
+        for (int row = 0; row < rows; row++) {
+            rowVersions[row] = hall.getRowVersion(row);
+            if (previous != null && previous.rowVersions[row] == rowVersions[row]) {
+                perRow[row] = previous.perRow[row];
+            } else {
+                int[] codes = rowSeats.seatCodesInRow(row, partySize, isLastResort);
+                perRow[row] = codes.length == 0 ? NONE : codes;
+            }
+            total += perRow[row].length;
+        }
+
+        int[] codes = new int[total];
+        int count = 0;
+        for (int[] row : perRow) {
+            System.arraycopy(row, 0, codes, count, row.length);
+            count += row.length;
+        }
+        return new Entry(version, isLastResort, rowVersions, perRow, codes);
+    }
+
+    private static final class Entry {
+        final long version;
+        final boolean lastResort;
+        final long[] rowVersions;
+        final int[][] perRow;
+        final int[] codes;
+
+        Entry(long version, boolean lastResort, long[] rowVersions, int[][] perRow, int[] codes) {
+            this.version = version;
+            this.lastResort = lastResort;
+            this.rowVersions = rowVersions;
+            this.perRow = perRow;
+            this.codes = codes;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package dk.cinema.service;
+
+import dk.cinema.metrics.Histogram;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Målinger fra én BookingService. Alt tælles med LongAdder og histogrammer uden låse, så
+ * målingen ikke selv bliver et konkurrencepunkt. Tællerne nulstilles ikke af reset(), da
+ * de skal kunne læses som monotone tællere udefra.
+ */
+public class BookingMetrics {
+    private final LongAdder[] rejections = new LongAdder[RejectReason.values().length];
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder casRetries = new LongAdder();
+    private final Histogram criticalSection = Histogram.latency();
+    private final RowLockTable rowLocks;
+
+    BookingMetrics(RowLockTable rowLocks) {
+        this.rowLocks = rowLocks;
+        for (int i = 0; i < rejections.length; i++) {
+            rejections[i] = new LongAdder();
+        }
+    }
+
+    void recordRejection(RejectReason reason) {
+        rejections[reason.ordinal()].increment();
+    }
+
+    void recordAccepted() {
+        accepted.increment();
+    }
+
+    void recordCasRetry() {
+        casRetries.increment();
+    }
+
+    void recordCriticalSection(long nanos) {
+        criticalSection.record(nanos);
+    }
+
+    /**
+     * Antal afvisninger pr. årsag, også årsager der ikke er forekommet.
+     */
+    public Map<RejectReason, Long> getRejections() {
+        Map<RejectReason, Long> counts = new EnumMap<>(RejectReason.class);
+        for (RejectReason reason : RejectReason.values()) {
+            counts.put(reason, rejections[reason.ordinal()].sum());
+        }
+        return counts;
+    }
+
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    public long getCasRetries() {
+        return casRetries.sum();
+    }
+
+    /**
+     * Tid fra rækken er låst (eller CAS-løkken starter i OPTIMISTIC) til bookingen er afgjort.
+     */
+    public Histogram getCriticalSection() {
+        return criticalSection;
+    }
+
+    /**
+     * Ventetid på rækkelåse, kun for erhvervelser der måtte vente.
+     */
+    public Histogram getLockWait() {
+        return rowLocks.getWaitTimes();
+    }
+
+    public long getLockAcquisitions() {
+        return rowLocks.getAcquisitions();
+    }
+}
@@ -0,0 +1,208 @@
+package dk.cinema.service;
+
+import dk.cinema.model.CinemaHall;
+import dk.cinema.model.SeatBlock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resultatet af en booking, et hold eller en bekræftelse. Beslutningen gemmes som primitive
+ * felter; beskeder, isolerede sæder og forslag bygges først når de læses, typisk når
+ * resultatet serialiseres. Afvisninger uden detaljer deler én instans pr. årsag.
+ *
+ * Forslag beregnes ud fra salens tilstand når getSuggestions kaldes, ikke da bookingen blev
+ * afvist.
+ */
+public final class BookingResult {
+    private static final BookingResult[] SHARED_REJECTIONS = new BookingResult[RejectReason.values().length];
+
+    static {
+        for (RejectReason reason : RejectReason.values()) {
+            SHARED_REJECTIONS[reason.ordinal()] = new BookingResult(reason, null, null, false, 0, 0,
+                    Double.NaN, Double.NaN, null, null, -1, null);
+        }
+    }
+
+    private final RejectReason reason;
+    private final String id;
+    private final SeatBlock block;
+    private final boolean hold;
+    private final long expiresAt;
+    private final long holdMillis;
+    private final double fragmentationBefore;
+    private final double fragmentationAfter;
+    private final BookingService source;
+    private final String seatId;
+    private final int seatCode;
+    private final long[] isolated;
+
+    private BookingResult(RejectReason reason, String id, SeatBlock block, boolean hold, long expiresAt,
+                          long holdMillis, double fragmentationBefore, double fragmentationAfter,
+                          BookingService source, String seatId, int seatCode, long[] isolated) {
+        this.reason = reason;
+        this.id = id;
+        this.block = block;
+        this.hold = hold;
+        this.expiresAt = expiresAt;
+        this.holdMillis = holdMillis;
+        this.fragmentationBefore = fragmentationBefore;
+        this.fragmentationAfter = fragmentationAfter;
+        this.source = source;
+        this.seatId = seatId;
+        this.seatCode = seatCode;
+        this.isolated = isolated;
+    }
+
+    static BookingResult booked(String bookingId, SeatBlock block) {
+        return booked(bookingId, block, Double.NaN, Double.NaN);
+    }
+
+    static BookingResult booked(String bookingId, SeatBlock block, double fragmentationBefore,
+                                double fragmentationAfter) {
+        return new BookingResult(null, bookingId, block, false, 0, 0,
+                fragmentationBefore, fragmentationAfter, null, null, -1, null);
+    }
+
+    static BookingResult held(String holdId, SeatBlock block, long expiresAt, long holdMillis) {
+        return new BookingResult(null, holdId, block, true, expiresAt, holdMillis,
+                Double.NaN, Double.NaN, null, null, -1, null);
+    }
+
+    static BookingResult rejected(RejectReason reason) {
+        return SHARED_REJECTIONS[reason.ordinal()];
+    }
+
+    /**
+     * seatId er sædet som klienten skrev det, eller null hvis seatCode skal bruges.
+     */
+    static BookingResult seatUnavailable(BookingService source, String seatId, int seatCode) {
+        return new BookingResult(RejectReason.SEAT_UNAVAILABLE, null, null, false, 0, 0,
+                Double.NaN, Double.NaN, source, seatId, seatCode, null);
+    }
+
+    /**
+     * isolated er de sæder i rækken der ville blive isolerede, som bits pr. ord.
+     */
+    static BookingResult fragmentation(BookingService source, SeatBlock requested, long[] isolated) {
+        return new BookingResult(RejectReason.FRAGMENTATION_PREVENTION, null, requested, false, 0, 0,
+                Double.NaN, Double.NaN, source, null, -1, isolated);
+    }
+
+    public boolean isSuccess() {
+        return reason == null;
+    }
+
+    /**
+     * Årsagen til afvisningen, eller null hvis resultatet er en succes.
+     */
+    public RejectReason getReason() {
+        return reason;
+    }
+
+    public boolean isHold() {
+        return hold;
+    }
+
+    /**
+     * Bookingens id, eller null hvis resultatet er et hold eller en afvisning.
+     */
+    public String getBookingId() {
+        return isSuccess() && !hold ? id : null;
+    }
+
+    public String getHoldId() {
+        return hold ? id : null;
+    }
+
+    /**
+     * De bookede eller holdte sæder; ved FRAGMENTATION_PREVENTION de ønskede sæder.
+     */
+    public SeatBlock getBlock() {
+        return block;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * Om fragmenteringen før og efter er målt. Det sker kun for bookinger af flere sæder.
+     */
+    public boolean hasFragmentation() {
+        return !Double.isNaN(fragmentationBefore);
+    }
+
+    public double getFragmentationBefore() {
+        return fragmentationBefore;
+    }
+
+    public double getFragmentationAfter() {
+        return fragmentationAfter;
+    }
+
+    public double getFragmentationIncrease() {
+        return fragmentationAfter - fragmentationBefore;
+    }
+
+    public String getMessage() {
+        if (isSuccess()) {
+            if (hold) {
+                return block.getLength() + " plads(er) holdt i " + (holdMillis / 1000) + " sekunder";
+            }
+            return block.getLength() == 1
+                    ? "Booking gennemført! 1 plads reserveret"
+                    : "Booking gennemført! " + block.getLength() + " plads(er) reserveret";
+        }
+
+        switch (reason) {
+            case SEAT_UNAVAILABLE:
+                return "Plads " + getUnavailableSeat() + " er ikke tilgængelig";
+            case FRAGMENTATION_PREVENTION:
+                List<String> seats = getIsolatedSeats();
+                if (seats.size() == 1) {
+                    return "Denne booking ville efterlade 1 isoleret plads (" + seats.get(0)
+                            + "). Vælg venligst andre pladser.";
+                }
+                return "Denne booking ville efterlade " + seats.size() + " isolerede pladser ("
+                        + String.join(", ", seats) + "). Vælg venligst andre pladser.";
+            default:
+                return reason.getMessage();
+        }
+    }
+
+    /**
+     * Sædet der ikke var ledigt, ved SEAT_UNAVAILABLE.
+     */
+    public String getUnavailableSeat() {
+        if (reason != RejectReason.SEAT_UNAVAILABLE) return null;
+        if (seatId != null) return seatId;
+        CinemaHall hall = source.getCinemaHall();
+        return hall.isValidSeatCode(seatCode) ? hall.seatId(seatCode) : String.valueOf(seatCode);
+    }
+
+    /**
+     * Sæder der ville blive isolerede, ved FRAGMENTATION_PREVENTION; ellers en tom liste.
+     */
+    public List<String> getIsolatedSeats() {
+        List<String> seats = new ArrayList<>(2);
+        if (isolated == null) return seats;
+        for (int w = 0; w < isolated.length; w++) {
+            long bits = isolated[w];
+            while (bits != 0) {
+                seats.add(block.getRow() + "-" + ((w << 6) + Long.numberOfTrailingZeros(bits)));
+                bits &= bits - 1;
+            }
+        }
+        return seats;
+    }
+
+    /**
+     * De nærmeste alternative placeringer i hele salen, ved FRAGMENTATION_PREVENTION; ellers
+     * en tom liste.
+     */
+    public List<String> getSuggestions() {
+        if (reason != RejectReason.FRAGMENTATION_PREVENTION) return new ArrayList<>();
+        return source.getSuggestedAlternatives(block.getRow(), block.getStart(), block.getLength());
+    }
+}
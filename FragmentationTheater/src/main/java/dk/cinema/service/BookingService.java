@@ -1,7 +1,16 @@
 package dk.cinema.service;
 
 import dk.cinema.model.*;
+import dk.cinema.persistence.BookingJournal;
+import dk.cinema.persistence.HallSnapshot;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
 
 /**
  * Service til håndtering af biografsædebookinger med fragmenteringsforebyggelse.
@@ -12,363 +21,987 @@ import java.util.*;
  * - Grupper må ikke skabe isolerede enkeltsæder
  * - "Sidste udvej": Hvis der er ≤4 ledige sæder tilbage og man booker ≥(ledige-1), tillades det
  * - Alle sæder i samme række skal være sammenhængende
+ *
+ * En booking valideres mod et øjebliksbillede af rækken og gennemføres med compare-and-set
+ * på rækkens ord; er rækken ændret i mellemtiden, valideres der igen. I tilstanden
+ * OPTIMISTIC tages rækkens stribe kun delt, så bookinger aldrig venter på hinanden. I
+ * ROW_STRIPED og GLOBAL holdes rækkens stribe eksklusivt under validering og commit.
+ * Operationer på hele salen tager alle striber eksklusivt i fast rækkefølge.
+ *
+ * Sæder kan holdes under betaling. Et hold optager sæderne efter samme regler som en
+ * booking og bliver enten bekræftet til en booking eller frigivet når dets TTL udløber.
+ * Udløb styres af et hashed timer wheel, så expireHolds kun arbejder på de udløbne holds.
+ *
+ * Med en journal (openJournal) skrives bookinger, annulleringer og nulstillinger til disk,
+ * og salen genopbygges fra journalen ved opstart. Holds journaliseres ikke; de er
+ * midlertidige, og et bekræftet hold skrives som en almindelig booking.
+ *
+ * Bookinger og annulleringer skrives i journalen og indekset mens rækkens stribe holdes.
+ * Et snapshot tager alle striber eksklusivt, så journalens position og indekset passer
+ * sammen, og halen efter positionen kan afspilles oven på det. Kan journalen ikke skrives,
+ * afvises bookinger med JOURNAL_UNAVAILABLE før de optager sæder.
  */
 public class BookingService {
+    private static final int MAX_STRIPES = 1024;
+    private static final long HOLD_TICK_MILLIS = 100;
+    private static final int HOLD_WHEEL_SLOTS = 8192;
+    private static final double ROW_DISTANCE_WEIGHT = 2.0;
+    private static final double SPLIT_RUN_PENALTY = 1.5;
+    private static final double ISOLATED_SEAT_PENALTY = 100.0;
+    private static final int MAX_SUGGESTIONS = 3;
+    private static final int[] NO_SEAT_CODES = new int[0];
+
+    /**
+     * Til allocateBest: ingen foretrukken række, midten af salen foretrækkes.
+     */
+    public static final int NO_ROW_PREFERENCE = -1;
+
     private final CinemaHall cinemaHall;
-    private final Map<String, List<Seat>> bookings;
-    private int totalBookings;
-    private int rejectedBookings;
+    private final ConcurrencyMode mode;
+    private final RowLockTable rowLocks;
+    private final BookingMetrics metrics;
+    private final Map<String, SeatBlock> bookings;
+    private final Map<String, Hold> holds = new ConcurrentHashMap<>();
+    private final HoldTimerWheel<String> holdWheel;
+    private final LongSupplier clock;
+    private final ThreadLocal<long[][]> rowBuffers;
+    private final SuggestionEngine suggestions;
+    private final AvailableSeatsCache availableSeats;
+    private volatile BookingJournal journal;
+    private final AtomicInteger totalBookings = new AtomicInteger();
+    private final AtomicInteger rejectedBookings = new AtomicInteger();
+    private final AtomicInteger cancelledBookings = new AtomicInteger();
 
     public BookingService() {
         this(10, 13);
     }
 
     public BookingService(int rows, int seatsPerRow) {
-        this.cinemaHall = new CinemaHall(rows, seatsPerRow);
-        this.bookings = new HashMap<>();
-        this.totalBookings = 0;
-        this.rejectedBookings = 0;
+        this(rows, seatsPerRow, ConcurrencyMode.OPTIMISTIC);
+    }
+
+    public BookingService(int rows, int seatsPerRow, ConcurrencyMode mode) {
+        this(rows, seatsPerRow, mode, System::currentTimeMillis);
+    }
+
+    BookingService(int rows, int seatsPerRow, ConcurrencyMode mode, LongSupplier clock) {
+        this(VenueLayout.rectangular(rows, seatsPerRow), mode, clock);
+    }
+
+    public BookingService(VenueLayout layout, ConcurrencyMode mode) {
+        this(layout, mode, System::currentTimeMillis);
+    }
+
+    BookingService(VenueLayout layout, ConcurrencyMode mode, LongSupplier clock) {
+        int rows = layout.getRows();
+        this.cinemaHall = new CinemaHall(layout);
+        this.rowBuffers = ThreadLocal.withInitial(() -> new long[][] {cinemaHall.newRowBuffer(), cinemaHall.newRowBuffer()});
+        this.suggestions = new SuggestionEngine(cinemaHall, ROW_DISTANCE_WEIGHT);
+        this.availableSeats = new AvailableSeatsCache(cinemaHall, this::seatCodesInRow);
+        this.clock = clock;
+        this.holdWheel = new HoldTimerWheel<>(HOLD_TICK_MILLIS, HOLD_WHEEL_SLOTS, clock.getAsLong());
+        this.mode = mode;
+        this.rowLocks = new RowLockTable(mode == ConcurrencyMode.GLOBAL ? 1 : Math.min(rows, MAX_STRIPES));
+        this.metrics = new BookingMetrics(rowLocks);
+        this.bookings = new ConcurrentHashMap<>();
+    }
+
+    public ConcurrencyMode getConcurrencyMode() {
+        return mode;
     }
 
     public CinemaHall getCinemaHall() {
         return cinemaHall;
     }
 
+    public BookingMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
-     * Booker sæder hvis de er tilgængelige og ikke skaber fragmentering.
+     * Salens version; stiger ved hver booking, annullering, hold, afvisning og nulstilling.
+     */
+    public long getVersion() {
+        return cinemaHall.getVersion();
+    }
+
+    /**
+     * Stiger kun når sæder bliver optaget eller frigivet, ikke ved afvisninger.
      */
-    public synchronized Map<String, Object> bookSeats(BookingRequest request) {
-        Map<String, Object> result = new HashMap<>();
-        List<Seat> seatsToBook = new ArrayList<>();
-        Set<Integer> rows = new HashSet<>();
+    public long getSeatVersion() {
+        return cinemaHall.getSeatVersion();
+    }
 
-        for (String seatId : request.getSeatIds()) {
-            String[] parts = seatId.split("-");
-            int row = Integer.parseInt(parts[0]);
-            int number = Integer.parseInt(parts[1]);
+    /**
+     * Genopbygger salen fra journalen i file og skriver fremtidige ændringer til den.
+     * Skal kaldes før servicen tager imod bookinger.
+     */
+    public void openJournal(Path file) throws IOException {
+        openJournal(file, null);
+    }
 
-            rows.add(row);
+    /**
+     * Som openJournal(file), men indlæser først snapshotFile hvis det findes og passer til
+     * salen, og afspiller kun journalen efter snapshottets position.
+     */
+    public void openJournal(Path file, Path snapshotFile) throws IOException {
+        if (journal != null) {
+            throw new IllegalStateException("Journalen er allerede åben");
+        }
 
-            Seat seat = cinemaHall.getSeat(row, number);
-            if (seat == null || seat.isOccupied()) {
-                result.put("success", false);
-                result.put("message", "Plads " + seatId + " er ikke tilgængelig");
-                result.put("reason", "SEAT_UNAVAILABLE");
-                return result;
+        HallSnapshot snapshot = snapshotFile == null ? null : HallSnapshot.load(snapshotFile);
+        long fromPosition = 0;
+        if (snapshot != null && snapshot.getRows() == cinemaHall.getRows()
+                && snapshot.getSeatsPerRow() == cinemaHall.getSeatsPerRow()) {
+            restore(snapshot);
+            fromPosition = snapshot.getJournalPosition();
+        }
+        journal = BookingJournal.open(file, fromPosition, new JournalReplay());
+    }
+
+    /**
+     * Tager et øjebliksbillede af bookingerne og journalens position. Holds kommer ikke med.
+     */
+    public HallSnapshot snapshot() {
+        rowLocks.lockAll();
+        try {
+            BookingJournal current = journal;
+            long position = current == null ? 0 : current.position();
+            return new HallSnapshot(cinemaHall.getRows(), cinemaHall.getSeatsPerRow(), position,
+                    totalBookings.get(), cancelledBookings.get(), new HashMap<>(bookings));
+        } finally {
+            rowLocks.unlockAll();
+        }
+    }
+
+    /**
+     * Skriver et snapshot til file. Journalen synkroniseres først, så snapshottet aldrig
+     * peger forbi det der er på disken.
+     */
+    public void writeSnapshot(Path file) throws IOException {
+        HallSnapshot snapshot = snapshot();
+        BookingJournal current = journal;
+        if (current != null) current.sync();
+        snapshot.writeTo(file);
+    }
+
+    private void restore(HallSnapshot snapshot) {
+        long[] expected = cinemaHall.newRowBuffer();
+        long[] update = cinemaHall.newRowBuffer();
+        for (int r = 0; r < cinemaHall.getRows(); r++) {
+            cinemaHall.readRow(r, expected);
+            snapshot.readRow(r, update);
+            // Snapshottet kender ikke gange og spærrede pladser; de faste bits står i den tomme række.
+            for (int w = 0; w < update.length; w++) {
+                update[w] |= expected[w];
             }
-            seatsToBook.add(seat);
+            cinemaHall.compareAndSetRow(r, expected, update);
+        }
+        for (Map.Entry<String, SeatBlock> entry : snapshot.getBookings().entrySet()) {
+            SeatBlock block = entry.getValue();
+            cinemaHall.assignBookingId(block.getRow(), block.getStart(), block.getEnd(), entry.getKey());
+        }
+        bookings.putAll(snapshot.getBookings());
+        totalBookings.set(snapshot.getTotalBookings());
+        cancelledBookings.set(snapshot.getCancelledBookings());
+    }
+
+    /**
+     * Skriver de sidste journalposter til disken og lukker journalen.
+     */
+    public void closeJournal() throws IOException {
+        BookingJournal current = journal;
+        journal = null;
+        if (current != null) current.close();
+    }
+
+    public BookingJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Booker sæder hvis de er tilgængelige og ikke skaber fragmentering.
+     */
+    public BookingResult bookSeats(BookingRequest request) {
+        return reserve(request, true, 0);
+    }
+
+    /**
+     * Holder sæderne i ttlMillis efter samme regler som bookSeats. Holdet skal bekræftes med
+     * confirmHold inden det udløber, ellers frigives sæderne.
+     */
+    public BookingResult holdSeats(BookingRequest request, long ttlMillis) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("TTL skal være positiv");
         }
+        return reserve(request, true, ttlMillis);
+    }
 
-        if (seatsToBook.size() > 1 && rows.size() > 1) {
-            result.put("success", false);
-            result.put("message", "Alle sæder skal være i samme række");
-            result.put("reason", "DIFFERENT_ROWS");
-            return result;
+    /**
+     * Gør et hold til en booking. Afvises med HOLD_NOT_FOUND hvis holdet ikke findes (også
+     * når det er fejet væk efter udløb) og med HOLD_EXPIRED hvis tiden er gået, men holdet
+     * endnu ikke er fejet væk.
+     */
+    public BookingResult confirmHold(String holdId) {
+        Hold hold = holds.get(holdId);
+        if (hold == null) {
+            return reject(RejectReason.HOLD_NOT_FOUND);
+        }
+        if (!journalWritable()) {
+            return reject(RejectReason.JOURNAL_UNAVAILABLE);
         }
 
-        if (seatsToBook.size() > 1) {
-            List<Integer> seatNumbers = new ArrayList<>();
-            for (Seat seat : seatsToBook) {
-                seatNumbers.add(seat.getNumber());
+        SeatBlock block = hold.block;
+        String bookingId = newBookingId();
+        lockRow(block.getRow());
+        try {
+            // Holdet fjernes under striben, så en samtidig nulstilling enten ser det eller ikke.
+            if (!holds.remove(holdId, hold)) {
+                return reject(RejectReason.HOLD_NOT_FOUND);
             }
-            Collections.sort(seatNumbers);
-
-            for (int i = 0; i < seatNumbers.size() - 1; i++) {
-                if (seatNumbers.get(i + 1) - seatNumbers.get(i) != 1) {
-                    result.put("success", false);
-                    result.put("message", "Sæderne skal være sammenhængende");
-                    result.put("reason", "NOT_CONTIGUOUS");
-                    return result;
-                }
+            hold.cancelTimeout();
+            if (clock.getAsLong() >= hold.expiresAt) {
+                // Udløbet, men endnu ikke fejet væk; holdet er fjernet, så sæderne frigives her.
+                cinemaHall.releaseRange(block.getRow(), block.getStart(), block.getEnd(), holdId);
+                return reject(RejectReason.HOLD_EXPIRED);
+            }
+            if (!journalBook(bookingId, block)) {
+                // Journalen fejlede efter tjekket; holdet er fjernet, så sæderne frigives.
+                cinemaHall.releaseRange(block.getRow(), block.getStart(), block.getEnd(), holdId);
+                return reject(RejectReason.JOURNAL_UNAVAILABLE);
             }
+            cinemaHall.assignBookingId(block.getRow(), block.getStart(), block.getEnd(), bookingId);
+            cinemaHall.markHeld(block.getRow(), block.getStart(), block.getEnd(), false);
+
+            bookings.put(bookingId, block);
+            totalBookings.incrementAndGet();
+        } finally {
+            unlockRow(block.getRow());
         }
+        metrics.recordAccepted();
+        cinemaHall.bumpVersion();
+        return BookingResult.booked(bookingId, block);
+    }
 
-        if (seatsToBook.size() == 1) {
-            FragmentationCheckResult fragmentationCheck = wouldCreateFragmentation(seatsToBook);
-            int totalAvailableSeats = countAvailableSeats();
-            boolean isLastResort = (totalAvailableSeats <= 4);
+    /**
+     * Annullerer en booking og frigiver dens sæder. Bookingens række og sæder slås op i
+     * indekset over bookinger, så kun den berørte række ændres og genberegnes.
+     * Returnerer false hvis bookingen ikke findes.
+     *
+     * Annulleringen journaliseres før bookingen fjernes. Kan journalen ikke skrives, kastes
+     * fejlen, og bookingen står urørt.
+     */
+    public boolean cancelBooking(String bookingId) {
+        SeatBlock block = bookings.get(bookingId);
+        if (block == null) return false;
+
+        lockRow(block.getRow());
+        try {
+            // Taber annulleringen kapløbet, ignoreres den ekstra post ved afspilning.
+            BookingJournal current = journal;
+            if (current != null) current.appendCancel(bookingId);
+            if (!bookings.remove(bookingId, block)) return false;
+            cinemaHall.releaseRange(block.getRow(), block.getStart(), block.getEnd(), bookingId);
+            cancelledBookings.incrementAndGet();
+        } finally {
+            unlockRow(block.getRow());
+        }
+        cinemaHall.bumpVersion();
+        return true;
+    }
 
-            if (fragmentationCheck.wouldFragment && !isLastResort) {
-                rejectedBookings++;
-                result.put("success", false);
-                result.put("message", fragmentationCheck.message);
-                result.put("reason", "FRAGMENTATION_PREVENTION");
-                result.put("isolatedSeats", fragmentationCheck.isolatedSeats);
-                result.put("suggestions", getSuggestedAlternatives(seatsToBook));
-                return result;
-            }
+    /**
+     * Frigiver et hold før tid. Returnerer false hvis holdet ikke findes.
+     */
+    public boolean releaseHold(String holdId) {
+        Hold hold = holds.get(holdId);
+        return hold != null && releaseHoldSeats(hold);
+    }
+
+    /**
+     * Frigiver alle holds hvis TTL er udløbet. Kaldes periodisk.
+     */
+    public void expireHolds() {
+        holdWheel.advance(clock.getAsLong(), holdId -> {
+            Hold hold = holds.get(holdId);
+            if (hold != null) releaseHoldSeats(hold);
+        });
+    }
 
-            String bookingId = UUID.randomUUID().toString();
-            for (Seat seat : seatsToBook) {
-                seat.book(bookingId);
+    /**
+     * Fjerner holdet og frigiver dets sæder under rækkens stribe. Returnerer false hvis
+     * holdet allerede er bekræftet, frigivet eller nulstillet.
+     */
+    private boolean releaseHoldSeats(Hold hold) {
+        SeatBlock block = hold.block;
+        lockRow(block.getRow());
+        try {
+            if (!holds.remove(hold.holdId, hold)) return false;
+            hold.cancelTimeout();
+            cinemaHall.releaseRange(block.getRow(), block.getStart(), block.getEnd(), hold.holdId);
+        } finally {
+            unlockRow(block.getRow());
+        }
+        return true;
+    }
+
+    /**
+     * Evaluerer bookingerne i rækkefølge under én kritisk sektion: striberne for alle
+     * berørte rækker tages én gang i stigende rækkefølge. Hver booking får sit eget resultat,
+     * og en ugyldig forespørgsel afviser kun sig selv.
+     */
+    public List<BookingResult> bookSeatsBatch(List<BookingRequest> requests) {
+        List<BookingResult> results = new ArrayList<>(requests.size());
+        int[] held = rowLocks.lockRows(rowsOf(requests));
+        try {
+            for (BookingRequest request : requests) {
+                try {
+                    results.add(reserve(request, false, 0));
+                } catch (RuntimeException e) {
+                    results.add(reject(RejectReason.INVALID_REQUEST));
+                }
             }
-            bookings.put(bookingId, seatsToBook);
-            totalBookings++;
+        } finally {
+            rowLocks.unlockStripes(held);
+        }
+        return results;
+    }
 
-            result.put("success", true);
-            result.put("bookingId", bookingId);
-            result.put("message", "Booking gennemført! 1 plads reserveret");
-            return result;
+    private int[] rowsOf(List<BookingRequest> requests) {
+        int[] rows = new int[requests.size()];
+        int count = 0;
+        for (BookingRequest request : requests) {
+            try {
+                int[] codes = request.getSeatCodes();
+                List<String> seatIds = request.getSeatIds();
+                int code = codes != null ? (codes.length > 0 ? codes[0] : -1)
+                        : seatIds != null && !seatIds.isEmpty() ? cinemaHall.parseSeatId(seatIds.get(0)) : -1;
+                if (cinemaHall.isValidSeatCode(code)) {
+                    rows[count++] = cinemaHall.rowOf(code);
+                }
+            } catch (NumberFormatException e) {
+                // Afvises senere af bookSeats
+            }
         }
+        return Arrays.copyOf(rows, count);
+    }
 
-        FragmentationCheckResult fragmentationCheck = wouldCreateFragmentation(seatsToBook);
-        int totalAvailableSeats = countAvailableSeats();
-        boolean isLastResort = (totalAvailableSeats <= 4 && seatsToBook.size() >= totalAvailableSeats - 1);
+    private static int seatCount(BookingRequest request) {
+        if (request.getSeatCodes() != null) return request.getSeatCodes().length;
+        return request.getSeatIds() == null ? 0 : request.getSeatIds().size();
+    }
 
-        if (fragmentationCheck.wouldFragment && !isLastResort) {
-            rejectedBookings++;
-            result.put("success", false);
-            result.put("message", fragmentationCheck.message);
-            result.put("reason", "FRAGMENTATION_PREVENTION");
-            result.put("isolatedSeats", fragmentationCheck.isolatedSeats);
-            result.put("suggestions", getSuggestedAlternatives(seatsToBook));
-            return result;
+    /**
+     * Forespørgslens i'te sæde som sædekode, eller -1 hvis sædet ligger uden for salen.
+     * Id'er oversættes ved hvert kald i stedet for at blive samlet i et nyt array.
+     */
+    private int seatCodeAt(BookingRequest request, int index) {
+        int[] codes = request.getSeatCodes();
+        if (codes == null) return cinemaHall.parseSeatId(request.getSeatIds().get(index));
+        return cinemaHall.isValidSeatCode(codes[index]) ? codes[index] : -1;
+    }
+
+    private BookingResult reserve(BookingRequest request, boolean lockRow, long holdMillis) {
+        int count = seatCount(request);
+        if (count == 0) {
+            return reject(RejectReason.INVALID_REQUEST);
         }
 
-        double fragmentationBefore = calculateFragmentation();
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            int code;
+            try {
+                code = seatCodeAt(request, i);
+            } catch (NumberFormatException e) {
+                return reject(RejectReason.INVALID_REQUEST);
+            }
+            if (code < 0 || cinemaHall.isOccupied(cinemaHall.rowOf(code), cinemaHall.numberOf(code))) {
+                String seatId = request.getSeatCodes() == null ? request.getSeatIds().get(i) : null;
+                return seatUnavailable(seatId, request.getSeatCodes() == null ? code : request.getSeatCodes()[i]);
+            }
+            min = Math.min(min, code);
+            max = Math.max(max, code);
+        }
 
-        String bookingId = UUID.randomUUID().toString();
-        for (Seat seat : seatsToBook) {
-            seat.book(bookingId);
+        int bookingRow = cinemaHall.rowOf(min);
+        if (cinemaHall.rowOf(max) != bookingRow) {
+            return reject(RejectReason.DIFFERENT_ROWS);
         }
-        bookings.put(bookingId, seatsToBook);
-        totalBookings++;
+        if (max - min + 1 != count || hasDuplicates(request, count, min)) {
+            return reject(RejectReason.NOT_CONTIGUOUS);
+        }
+
+        int from = cinemaHall.numberOf(min);
+        int to = from + count;
 
-        double fragmentationAfter = calculateFragmentation();
+        if (!lockRow) {
+            return timedCommit(bookingRow, from, to, holdMillis, true);
+        }
+        lockRow(bookingRow);
+        try {
+            return timedCommit(bookingRow, from, to, holdMillis, true);
+        } finally {
+            unlockRow(bookingRow);
+        }
+    }
 
-        result.put("success", true);
-        result.put("bookingId", bookingId);
-        result.put("message", "Booking gennemført! " + seatsToBook.size() + " plads(er) reserveret");
-        result.put("fragmentationBefore", fragmentationBefore);
-        result.put("fragmentationAfter", fragmentationAfter);
-        result.put("fragmentationIncrease", fragmentationAfter - fragmentationBefore);
+    /**
+     * Vælger og booker den bedste lovlige sammenhængende blok til partySize personer i ét
+     * kald. Kandidaterne findes i rækkernes ledige sekvenser og vurderes med scoreOf; den
+     * bedste gennemføres med samme validering og compare-and-set som bookSeats. Har en anden
+     * booking taget blokken i mellemtiden, vælges der igen ud fra den nye tilstand.
+     *
+     * preferredRow er den ønskede række, eller NO_ROW_PREFERENCE.
+     */
+    public BookingResult allocateBest(int partySize, int preferredRow) {
+        if (partySize < 1) {
+            throw new IllegalArgumentException("Selskabet skal have mindst én person");
+        }
 
-        return result;
+        long[] best = new long[2];
+        while (true) {
+            if (!findBestBlock(partySize, preferredRow, best)) {
+                return reject(RejectReason.NO_SEATS_AVAILABLE);
+            }
+            int row = (int) best[0];
+            int from = (int) best[1];
+
+            lockRow(row);
+            try {
+                BookingResult result = timedCommit(row, from, from + partySize, 0, false);
+                if (result != null) return result;
+            } finally {
+                unlockRow(row);
+            }
+        }
     }
 
     /**
-     * Tjekker om en booking ville skabe isolerede enkeltsæder.
+     * Finder den placering med lavest score og skriver rækken og første sæde i best.
+     * Returnerer false hvis ingen placering er lovlig.
      */
-    private FragmentationCheckResult wouldCreateFragmentation(List<Seat> seatsToBook) {
-        FragmentationCheckResult result = new FragmentationCheckResult();
-        result.isolatedSeats = new ArrayList<>();
+    private boolean findBestBlock(int partySize, int preferredRow, long[] best) {
+        boolean isLastResort = isLastResort(partySize);
+        double targetRow = preferredRow >= 0 ? preferredRow : (cinemaHall.getRows() - 1) / 2.0;
 
-        Set<String> tempBookedIds = new HashSet<>();
-        for (Seat seat : seatsToBook) {
-            tempBookedIds.add(seat.getId());
+        double bestScore = Double.POSITIVE_INFINITY;
+        for (int row = 0; row < cinemaHall.getRows(); row++) {
+            double rowCost = ROW_DISTANCE_WEIGHT * Math.abs(row - targetRow);
+            if (rowCost >= bestScore) continue;
+
+            FreeRuns runs = cinemaHall.getFreeRuns(row);
+            for (int run = 0; run < runs.getCount(); run++) {
+                int runLength = runs.getLength(run);
+                if (runLength < partySize) continue;
+                if (!isLastResort && hasOtherIsolated(runs, run)) continue;
+
+                int runStart = runs.getStart(run);
+                int centred = (int) Math.round((cinemaHall.getSeatsPerRow() - partySize) / 2.0) - runStart;
+                int maxOffset = runLength - partySize;
+                for (int offset : new int[] {0, maxOffset, centred - 1, centred, centred + 1}) {
+                    if (offset < 0 || offset > maxOffset) continue;
+                    if (!isLastResort && !isLegalOffset(runLength, offset, partySize)) continue;
+
+                    double score = rowCost + scoreOf(runStart, runLength, offset, partySize);
+                    if (score < bestScore) {
+                        bestScore = score;
+                        best[0] = row;
+                        best[1] = runStart + offset;
+                    }
+                }
+            }
         }
+        return bestScore != Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Scoren for at placere selskabet offset sæder inde i en ledig sekvens, uden rækkens
+     * afstand. Afstanden fra rækkens midte tæller i sæder. En placering der deler sekvensen
+     * i flere stykker koster SPLIT_RUN_PENALTY pr. nyt stykke, og isolerede sæder (kun
+     * tilladt som sidste udvej) koster ISOLATED_SEAT_PENALTY hver.
+     */
+    private double scoreOf(int runStart, int runLength, int offset, int partySize) {
+        double centre = runStart + offset + partySize / 2.0;
+        double score = Math.abs(centre - cinemaHall.getSeatsPerRow() / 2.0);
+
+        int rightGap = runLength - partySize - offset;
+        if (offset > 0) score += offset == 1 ? ISOLATED_SEAT_PENALTY : SPLIT_RUN_PENALTY;
+        if (rightGap > 0) score += rightGap == 1 ? ISOLATED_SEAT_PENALTY : SPLIT_RUN_PENALTY;
+        return score;
+    }
 
-        Set<Integer> affectedRows = new HashSet<>();
-        for (Seat seat : seatsToBook) {
-            affectedRows.add(seat.getRow());
+    /**
+     * Sæderne spænder over præcis count koder fra min; de er sammenhængende hvis ingen går
+     * igen. Op til 64 sæder tjekkes med en bitmaske uden allokering.
+     */
+    private boolean hasDuplicates(BookingRequest request, int count, int min) {
+        if (count <= SeatBits.WORD_BITS) {
+            long seen = 0;
+            for (int i = 0; i < count; i++) {
+                long bit = 1L << (seatCodeAt(request, i) - min);
+                if ((seen & bit) != 0) return true;
+                seen |= bit;
+            }
+            return false;
+        }
+        boolean[] seen = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            int offset = seatCodeAt(request, i) - min;
+            if (seen[offset]) return true;
+            seen[offset] = true;
         }
+        return false;
+    }
 
-        for (int row : affectedRows) {
-            for (int s = 0; s < cinemaHall.getSeatsPerRow(); s++) {
-                Seat seat = cinemaHall.getSeat(row, s);
-                String seatId = seat.getId();
+    private BookingResult timedCommit(int bookingRow, int from, int to, long holdMillis, boolean rejectOnConflict) {
+        long start = System.nanoTime();
+        try {
+            return commitBooking(bookingRow, from, to, holdMillis, rejectOnConflict);
+        } finally {
+            metrics.recordCriticalSection(System.nanoTime() - start);
+        }
+    }
 
-                if (tempBookedIds.contains(seatId) || seat.isOccupied()) {
-                    continue;
+    /**
+     * Validerer bookingen af sæderne [from, to) mod et øjebliksbillede af rækken og gennemfører
+     * den med compare-and-set. Er holdMillis positiv, registreres sæderne som et hold i stedet
+     * for en booking. Rækkebufferne genbruges pr. tråd, så en gennemført booking kun
+     * allokerer sit id, sin SeatBlock og resultatet.
+     *
+     * Er rejectOnConflict false, returneres null uden at afvisningen registreres, når sæderne
+     * ikke længere kan bookes; kalderen vælger så andre sæder.
+     */
+    private BookingResult commitBooking(int bookingRow, int from, int to, long holdMillis, boolean rejectOnConflict) {
+        if (holdMillis <= 0 && !journalWritable()) {
+            return reject(RejectReason.JOURNAL_UNAVAILABLE);
+        }
+        long[][] buffers = rowBuffers.get();
+        long[] snapshot = buffers[0];
+        long[] proposed = buffers[1];
+        int partySize = to - from;
+        double fragmentationBefore;
+        boolean retry = false;
+
+        do {
+            if (retry) metrics.recordCasRetry();
+            retry = true;
+            cinemaHall.readRow(bookingRow, snapshot);
+
+            for (int w = 0; w < snapshot.length; w++) {
+                long taken = snapshot[w] & SeatBits.rangeInWord(w, from, to);
+                if (taken != 0) {
+                    if (!rejectOnConflict) return null;
+                    int number = (w << 6) + Long.numberOfTrailingZeros(taken);
+                    return seatUnavailable(null, cinemaHall.seatCode(bookingRow, number));
                 }
+            }
 
-                boolean leftOccupied = isOccupiedOrInBooking(row, s - 1, tempBookedIds);
-                boolean rightOccupied = isOccupiedOrInBooking(row, s + 1, tempBookedIds);
+            int isolated = wouldCreateFragmentation(bookingRow, snapshot, from, to, null);
+            if (isolated > 0 && !isLastResort(partySize)) {
+                if (!rejectOnConflict) return null;
+                long[] isolatedSeats = new long[snapshot.length];
+                wouldCreateFragmentation(bookingRow, snapshot, from, to, isolatedSeats);
+                recordRejection(RejectReason.FRAGMENTATION_PREVENTION);
+                return BookingResult.fragmentation(this, new SeatBlock(bookingRow, from, partySize), isolatedSeats);
+            }
 
-                if (leftOccupied && rightOccupied) {
-                    result.isolatedSeats.add(seatId);
-                }
+            for (int w = 0; w < proposed.length; w++) {
+                proposed[w] = snapshot[w] | SeatBits.rangeInWord(w, from, to);
             }
+            fragmentationBefore = calculateFragmentation();
+        } while (!cinemaHall.compareAndSetRow(bookingRow, snapshot, proposed));
+
+        SeatBlock block = new SeatBlock(bookingRow, from, partySize);
+        if (holdMillis > 0) {
+            return registerHold(block, holdMillis);
         }
 
-        if (!result.isolatedSeats.isEmpty()) {
-            result.wouldFragment = true;
-            if (result.isolatedSeats.size() == 1) {
-                result.message = "Denne booking ville efterlade 1 isoleret plads (" +
-                        result.isolatedSeats.get(0) + "). Vælg venligst andre pladser.";
-            } else {
-                result.message = "Denne booking ville efterlade " + result.isolatedSeats.size() +
-                        " isolerede pladser (" + String.join(", ", result.isolatedSeats) +
-                        "). Vælg venligst andre pladser.";
-            }
+        String bookingId = newBookingId();
+        cinemaHall.assignBookingId(bookingRow, from, to, bookingId);
+        if (!journalBook(bookingId, block)) {
+            // Journalen fejlede efter tjekket; sæderne gives tilbage, så intet er booket uden post.
+            cinemaHall.releaseRange(bookingRow, from, to, bookingId);
+            return reject(RejectReason.JOURNAL_UNAVAILABLE);
         }
+        bookings.put(bookingId, block);
+        totalBookings.incrementAndGet();
+        metrics.recordAccepted();
+        cinemaHall.bumpVersion();
 
-        return result;
+        if (partySize == 1) {
+            return BookingResult.booked(bookingId, block);
+        }
+        return BookingResult.booked(bookingId, block, fragmentationBefore, calculateFragmentation());
+    }
+
+    /**
+     * False hvis journalen ikke kan skrives. Tjekkes før compare-and-set, så en booking der
+     * ikke kan journaliseres, normalt aldrig optager sæder.
+     */
+    private boolean journalWritable() {
+        BookingJournal current = journal;
+        return current == null || current.isWritable();
     }
 
-    private boolean isOccupiedOrInBooking(int row, int seatNum, Set<String> bookingIds) {
-        if (seatNum < 0 || seatNum >= cinemaHall.getSeatsPerRow()) {
+    /**
+     * Skriver bookingen til journalen. Returnerer false hvis journalen fejlede, så kalderen
+     * kan rulle sine ændringer tilbage.
+     */
+    private boolean journalBook(String bookingId, SeatBlock block) {
+        BookingJournal current = journal;
+        if (current == null) return true;
+        try {
+            current.appendBook(bookingId, block.getRow(), block.getStart(), block.getLength());
             return true;
+        } catch (UncheckedIOException | IllegalStateException e) {
+            return false;
         }
+    }
+
+    private BookingResult registerHold(SeatBlock block, long holdMillis) {
+        String holdId = newBookingId();
+        cinemaHall.assignBookingId(block.getRow(), block.getStart(), block.getEnd(), holdId);
+        cinemaHall.markHeld(block.getRow(), block.getStart(), block.getEnd(), true);
+
+        long expiresAt = clock.getAsLong() + holdMillis;
+        Hold hold = new Hold(holdId, block, expiresAt);
+        holds.put(holdId, hold);
+        hold.timeout = holdWheel.schedule(holdId, expiresAt);
+        return BookingResult.held(holdId, block, expiresAt, holdMillis);
+    }
 
-        Seat seat = cinemaHall.getSeat(row, seatNum);
-        return seat.isOccupied() || bookingIds.contains(seat.getId());
+    private BookingResult seatUnavailable(String seatId, int seatCode) {
+        recordRejection(RejectReason.SEAT_UNAVAILABLE);
+        return BookingResult.seatUnavailable(this, seatId, seatCode);
+    }
+
+    private BookingResult reject(RejectReason reason) {
+        recordRejection(reason);
+        return BookingResult.rejected(reason);
     }
 
     /**
-     * Finder alternative bookingforslag i samme række.
+     * Registrerer en afvisning, uanset årsag.
      */
-    private List<String> getSuggestedAlternatives(List<Seat> requestedSeats) {
-        List<String> suggestions = new ArrayList<>();
-        int requestedSize = requestedSeats.size();
-        int preferredRow = requestedSeats.get(0).getRow();
+    private void recordRejection(RejectReason reason) {
+        rejectedBookings.incrementAndGet();
+        metrics.recordRejection(reason);
+        cinemaHall.bumpVersion();
+    }
 
-        for (int startSeat = 0; startSeat <= cinemaHall.getSeatsPerRow() - requestedSize; startSeat++) {
-            boolean allAvailable = true;
-            List<Seat> candidateSeats = new ArrayList<>();
+    /**
+     * UUID version 4 fra ThreadLocalRandom, så bookinger ikke deler UUID.randomUUID's SecureRandom.
+     */
+    private static String newBookingId() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long most = (random.nextLong() & ~0xF000L) | 0x4000L;
+        long least = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(most, least).toString();
+    }
 
-            for (int i = 0; i < requestedSize; i++) {
-                Seat seat = cinemaHall.getSeat(preferredRow, startSeat + i);
-                if (seat.isOccupied()) {
-                    allAvailable = false;
-                    break;
-                }
-                candidateSeats.add(seat);
-            }
+    /**
+     * Tæller de enkeltsæder en booking af sæderne [from, to) ville isolere i rækken beskrevet
+     * af words. Ordene kombineres med bookingens bits, og isolerede sæder findes med skift og
+     * masker. Sæder der står alene mellem gange eller spærrede pladser tæller ikke. Er
+     * isolated ikke null, får den de isolerede sæder som bits.
+     */
+    int wouldCreateFragmentation(int row, long[] words, int from, int to, long[] isolated) {
+        int count = 0;
+        long prev = -1L;
+        long cur = proposedWord(words, 0, from, to);
+        for (int w = 0; w < words.length; w++) {
+            long next = proposedWord(words, w + 1, from, to);
+            long bits = SeatBits.isolated(prev, cur, next) & ~cinemaHall.getLoneSeats(row, w);
+            count += Long.bitCount(bits);
+            if (isolated != null) isolated[w] = bits;
+            prev = cur;
+            cur = next;
+        }
+        return count;
+    }
 
-            if (allAvailable) {
-                FragmentationCheckResult check = wouldCreateFragmentation(candidateSeats);
-                if (!check.wouldFragment) {
-                    suggestions.add("Række " + (preferredRow + 1) + ", pladser " +
-                            (startSeat + 1) + "-" + (startSeat + requestedSize));
+    private static long proposedWord(long[] words, int word, int from, int to) {
+        if (word >= words.length) return -1L;
+        return words[word] | SeatBits.rangeInWord(word, from, to);
+    }
 
-                    if (suggestions.size() >= 3) break;
-                }
-            }
+    /**
+     * Finder de nærmeste lovlige placeringer i hele salen til et selskab der ønskede at sidde
+     * fra sædet (row, seat), som tekster til brugeren.
+     */
+    List<String> getSuggestedAlternatives(int row, int seat, int requestedSize) {
+        List<String> texts = new ArrayList<>(MAX_SUGGESTIONS);
+        for (SeatBlock block : suggestAlternatives(row, seat, requestedSize, MAX_SUGGESTIONS)) {
+            texts.add("Række " + (block.getRow() + 1) + ", pladser " +
+                    (block.getStart() + 1) + "-" + block.getEnd());
         }
+        return texts;
+    }
+
+    /**
+     * Op til limit lovlige placeringer til requestedSize personer i hele salen, sorteret efter
+     * afstand fra sædet (row, seat). Se SuggestionEngine.
+     */
+    public List<SeatBlock> suggestAlternatives(int row, int seat, int requestedSize, int limit) {
+        return suggestions.suggest(row, seat, requestedSize, limit, isLastResort(requestedSize));
+    }
+
+    /**
+     * "Sidste udvej": med højst 4 ledige sæder må en enkelt person sidde hvor som helst, og
+     * en gruppe må booke hvis den tager alle eller alle på nær ét af de ledige sæder.
+     */
+    private boolean isLastResort(int partySize) {
+        int totalAvailable = countAvailableSeats();
+        return partySize == 1
+                ? totalAvailable <= 4
+                : totalAvailable <= 4 && partySize >= totalAvailable - 1;
+    }
 
-        return suggestions;
+    /**
+     * En placering i en maksimal ledig sekvens må ikke efterlade præcis ét ledigt sæde
+     * mod sekvensens kanter, da kanterne er optagne sæder eller rækkens ender.
+     */
+    static boolean isLegalOffset(int runLength, int offset, int partySize) {
+        int rightGap = runLength - partySize - offset;
+        return offset != 1 && rightGap != 1;
+    }
+
+    /**
+     * Øvrige isolerede sæder i rækken gør enhver booking i rækken fragmenterende.
+     */
+    static boolean hasOtherIsolated(FreeRuns runs, int run) {
+        return runs.getIsolatedSeats() - (runs.isIsolated(run) ? 1 : 0) > 0;
     }
-    
+
     private int countAvailableSeats() {
-        int count = 0;
-        for (Seat seat : cinemaHall.getAllSeats()) {
-            if (!seat.isOccupied()) count++;
-        }
-        return count;
+        return cinemaHall.getFreeSeats();
     }
 
     /**
      * Returnerer liste af tilgængelige sæder for en given gruppestørrelse.
+     * Gyldige placeringer findes direkte fra rækkernes ledige sekvenser.
      */
     public List<String> getAvailableSeatsForBooking(int partySize) {
-        List<String> availableSeats = new ArrayList<>();
-
-        if (partySize == 1) {
-            for (Seat seat : cinemaHall.getAllSeats()) {
-                if (!seat.isOccupied()) {
-                    List<Seat> testSelection = Arrays.asList(seat);
-                    FragmentationCheckResult check = wouldCreateFragmentation(testSelection);
+        int[] codes = getAvailableSeatCodes(partySize);
+        List<String> availableSeats = new ArrayList<>(codes.length);
+        for (int code : codes) {
+            availableSeats.add(cinemaHall.seatId(code));
+        }
+        return availableSeats;
+    }
 
-                    int totalAvailable = countAvailableSeats();
-                    boolean isLastResort = (totalAvailable <= 4);
+    /**
+     * Som getAvailableSeatsForBooking, men som stigende sædekoder. Resultatet caches pr.
+     * gruppestørrelse, og efter en ændring beregnes kun de ændrede rækker igen. Arrayet
+     * deles med cachen og andre kaldere og må ikke ændres.
+     */
+    public int[] getAvailableSeatCodes(int partySize) {
+        if (partySize < 1 || partySize > cinemaHall.getSeatsPerRow()) return NO_SEAT_CODES;
+        return availableSeats.get(partySize, isLastResort(partySize));
+    }
 
-                    if (!check.wouldFragment || isLastResort) {
-                        availableSeats.add(seat.getId());
-                    }
-                }
+    private int[] seatCodesInRow(int row, int partySize, boolean isLastResort) {
+        FreeRuns runs = cinemaHall.getFreeRuns(row);
+        int[] codes = new int[0];
+        int count = 0;
+        for (int run = 0; run < runs.getCount(); run++) {
+            int runStart = runs.getStart(run);
+            int runLength = runs.getLength(run);
+            if (runLength < partySize) continue;
+
+            if (isLastResort) {
+                codes = ensureCapacity(codes, count + runLength);
+                count = addSeatCodes(codes, count, row, runStart, runStart + runLength);
+                continue;
             }
-            return availableSeats;
-        }
+            if (hasOtherIsolated(runs, run)) continue;
 
-        for (int row = 0; row < cinemaHall.getRows(); row++) {
-            for (int startSeat = 0; startSeat <= cinemaHall.getSeatsPerRow() - partySize; startSeat++) {
-                boolean blockAvailable = true;
-                List<Seat> candidateSeats = new ArrayList<>();
-
-                for (int i = 0; i < partySize; i++) {
-                    Seat seat = cinemaHall.getSeat(row, startSeat + i);
-                    if (seat.isOccupied()) {
-                        blockAvailable = false;
-                        break;
-                    }
-                    candidateSeats.add(seat);
-                }
+            codes = ensureCapacity(codes, count + runLength);
+            int coveredUntil = runStart;
+            for (int offset = 0; offset <= runLength - partySize; offset++) {
+                if (!isLegalOffset(runLength, offset, partySize)) continue;
 
-                if (blockAvailable) {
-                    FragmentationCheckResult check = wouldCreateFragmentation(candidateSeats);
-                    int totalAvailable = countAvailableSeats();
-                    boolean isLastResort = (totalAvailable <= 4 && partySize >= totalAvailable - 1);
-
-                    if (!check.wouldFragment || isLastResort) {
-                        for (Seat seat : candidateSeats) {
-                            if (!availableSeats.contains(seat.getId())) {
-                                availableSeats.add(seat.getId());
-                            }
-                        }
-                    }
-                }
+                int endSeat = runStart + offset + partySize;
+                count = addSeatCodes(codes, count, row, Math.max(coveredUntil, runStart + offset), endSeat);
+                coveredUntil = endSeat;
             }
         }
+        return count == codes.length ? codes : Arrays.copyOf(codes, count);
+    }
 
-        return availableSeats;
+    private int addSeatCodes(int[] codes, int count, int row, int from, int to) {
+        int code = cinemaHall.seatCode(row, from);
+        for (int s = from; s < to; s++) {
+            codes[count++] = code++;
+        }
+        return count;
+    }
+
+    private static int[] ensureCapacity(int[] codes, int needed) {
+        return needed <= codes.length ? codes : Arrays.copyOf(codes, Math.max(needed, codes.length * 2));
     }
-    
+
     public double calculateFragmentation() {
-        int isolatedSeats = 0;
-        int totalEmptySeats = 0;
+        int totalEmptySeats = cinemaHall.getFreeSeats();
+        if (totalEmptySeats == 0) return 0.0;
+        return (cinemaHall.getIsolatedSeats() * 100.0) / totalEmptySeats;
+    }
 
-        for (int r = 0; r < cinemaHall.getRows(); r++) {
-            for (int s = 0; s < cinemaHall.getSeatsPerRow(); s++) {
-                Seat seat = cinemaHall.getSeat(r, s);
-                if (!seat.isOccupied()) {
-                    totalEmptySeats++;
+    public double calculateUtilization() {
+        return (cinemaHall.getOccupiedSeats() * 100.0) / cinemaHall.getTotalSeats();
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        lockAllUnlessOptimistic();
+        try {
+            stats.put("totalBookings", totalBookings.get());
+            stats.put("rejectedBookings", rejectedBookings.get());
+            stats.put("cancelledBookings", cancelledBookings.get());
+            stats.put("fragmentation", calculateFragmentation());
+            stats.put("utilization", calculateUtilization());
+            stats.put("totalSeats", cinemaHall.getTotalSeats());
+            stats.put("occupiedSeats", cinemaHall.getOccupiedSeats());
+            stats.put("heldSeats", cinemaHall.getHeldSeats());
+        } finally {
+            unlockAllUnlessOptimistic();
+        }
 
-                    boolean leftOccupied = (s == 0) || cinemaHall.getSeat(r, s - 1).isOccupied();
-                    boolean rightOccupied = (s == cinemaHall.getSeatsPerRow() - 1) ||
-                            cinemaHall.getSeat(r, s + 1).isOccupied();
+        return stats;
+    }
 
-                    if (leftOccupied && rightOccupied) {
-                        isolatedSeats++;
-                    }
-                }
+    /**
+     * Kopi af hele salens belægningsord, række for række. I de låsende tilstande tages alle
+     * striber, så kopien er ét sammenhængende øjebliksbillede; i OPTIMISTIC er hver række
+     * for sig sammenhængende.
+     */
+    public long[] snapshotOccupancy() {
+        int wordsPerRow = cinemaHall.getWordsPerRow();
+        long[] words = new long[cinemaHall.getRows() * wordsPerRow];
+        long[] row = cinemaHall.newRowBuffer();
+
+        lockAllUnlessOptimistic();
+        try {
+            for (int r = 0; r < cinemaHall.getRows(); r++) {
+                cinemaHall.readRow(r, row);
+                System.arraycopy(row, 0, words, r * wordsPerRow, wordsPerRow);
             }
+        } finally {
+            unlockAllUnlessOptimistic();
         }
+        return words;
+    }
 
-        if (totalEmptySeats == 0) return 0.0;
-        return (isolatedSeats * 100.0) / totalEmptySeats;
+    /**
+     * Nulstiller salen under alle striber. Ændringer holder deres rækkes stribe, også i
+     * OPTIMISTIC hvor den tages delt, så ingen booking ligger halvt før og halvt efter
+     * nulstillingen.
+     */
+    public void reset() {
+        rowLocks.lockAll();
+        try {
+            BookingJournal current = journal;
+            if (current != null) current.appendReset();
+            clearState();
+        } finally {
+            rowLocks.unlockAll();
+        }
     }
 
-    public double calculateUtilization() {
-        int occupied = 0;
-        int total = cinemaHall.getRows() * cinemaHall.getSeatsPerRow();
+    private void clearState() {
+        for (Hold hold : holds.values()) {
+            hold.cancelTimeout();
+        }
+        holds.clear();
+        cinemaHall.clear();
+        bookings.clear();
+        totalBookings.set(0);
+        rejectedBookings.set(0);
+        cancelledBookings.set(0);
+        cinemaHall.bumpVersion();
+    }
 
-        for (Seat seat : cinemaHall.getAllSeats()) {
-            if (seat.isOccupied()) occupied++;
+    /**
+     * Tager rækkens stribe før en ændring. I OPTIMISTIC tages den delt: ændringer venter ikke
+     * på hinanden og afgøres med compare-and-set, men venter på nulstilling og snapshot.
+     */
+    private void lockRow(int row) {
+        if (mode == ConcurrencyMode.OPTIMISTIC) {
+            rowLocks.lockShared(row);
+        } else {
+            rowLocks.lock(row);
         }
+    }
 
-        return (occupied * 100.0) / total;
+    private void unlockRow(int row) {
+        if (mode == ConcurrencyMode.OPTIMISTIC) {
+            rowLocks.unlockShared(row);
+        } else {
+            rowLocks.unlock(row);
+        }
     }
 
-    public Map<String, Object> getStatistics() {
-        Map<String, Object> stats = new HashMap<>();
-        stats.put("totalBookings", totalBookings);
-        stats.put("rejectedBookings", rejectedBookings);
-        stats.put("fragmentation", calculateFragmentation());
-        stats.put("utilization", calculateUtilization());
-        stats.put("totalSeats", cinemaHall.getRows() * cinemaHall.getSeatsPerRow());
+    private void lockAllUnlessOptimistic() {
+        if (mode != ConcurrencyMode.OPTIMISTIC) rowLocks.lockAll();
+    }
+
+    private void unlockAllUnlessOptimistic() {
+        if (mode != ConcurrencyMode.OPTIMISTIC) rowLocks.unlockAll();
+    }
 
-        int occupied = 0;
-        for (Seat seat : cinemaHall.getAllSeats()) {
-            if (seat.isOccupied()) occupied++;
+    /**
+     * Anvender journalens hændelser på salen uden at skrive dem igen. Bookinger der ligger
+     * uden for salen eller rammer optagne sæder springes over, så en journal fra en sal med
+     * andre dimensioner ikke kan ødelægge tilstanden.
+     */
+    private class JournalReplay implements BookingJournal.Listener {
+        private final long[] words = cinemaHall.newRowBuffer();
+
+        @Override
+        public void onBook(String bookingId, int row, int start, int length) {
+            if (length < 1 || !cinemaHall.isValidSeat(row, start)
+                    || !cinemaHall.isValidSeat(row, start + length - 1)) {
+                return;
+            }
+            cinemaHall.readRow(row, words);
+            for (int w = 0; w < words.length; w++) {
+                if ((words[w] & SeatBits.rangeInWord(w, start, start + length)) != 0) return;
+            }
+            cinemaHall.bookRange(row, start, start + length, bookingId);
+            bookings.put(bookingId, new SeatBlock(row, start, length));
+            totalBookings.incrementAndGet();
         }
-        stats.put("occupiedSeats", occupied);
 
-        return stats;
-    }
+        @Override
+        public void onCancel(String bookingId) {
+            SeatBlock block = bookings.remove(bookingId);
+            if (block == null) return;
+            cinemaHall.releaseRange(block.getRow(), block.getStart(), block.getEnd(), bookingId);
+            cancelledBookings.incrementAndGet();
+        }
 
-    public void reset() {
-        for (Seat seat : cinemaHall.getAllSeats()) {
-            seat.release();
+        @Override
+        public void onReset() {
+            clearState();
         }
-        bookings.clear();
-        totalBookings = 0;
-        rejectedBookings = 0;
     }
 
-    private static class FragmentationCheckResult {
-        boolean wouldFragment = false;
-        String message = "";
-        List<String> isolatedSeats = new ArrayList<>();
+    private static class Hold {
+        final String holdId;
+        final SeatBlock block;
+        final long expiresAt;
+        volatile HoldTimerWheel.Timeout<String> timeout;
+
+        Hold(String holdId, SeatBlock block, long expiresAt) {
+            this.holdId = holdId;
+            this.block = block;
+            this.expiresAt = expiresAt;
+        }
+
+        void cancelTimeout() {
+            HoldTimerWheel.Timeout<String> current = timeout;
+            if (current != null) current.cancel();
+        }
     }
 }
@@ -0,0 +1,16 @@
+package dk.cinema.service;
+
+/**
+ * Hvordan BookingService beskytter en sal mod samtidige bookinger.
+ */
+public enum ConcurrencyMode {
+    /**
+     * Bookinger udelukker ikke hinanden; hver gennemføres med compare-and-set på rækkens ord.
+     * Rækkens stribe tages kun delt, så nulstilling og snapshot kan vente ændringerne ud.
+     */
+    OPTIMISTIC,
+    /** Én lås pr. rækkestribe; operationer låser kun de rækker de rører. */
+    ROW_STRIPED,
+    /** Én lås for hele salen, svarende til en synchronized bookSeats. */
+    GLOBAL
+}
@@ -0,0 +1,81 @@
+package dk.cinema.service;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timer wheel til udløb af pladsholds. En timeout lægges i slottet for dens
+ * udløbstik, og advance besøger kun slottene for de tik der er gået, så arbejdet pr.
+ * kald afhænger af antallet af udløbne holds og ikke af hvor mange sæder salen har.
+ * Annullerede timeouts fjernes først når deres slot besøges.
+ */
+public class HoldTimerWheel<K> {
+    private final long tickMillis;
+    private final List<ArrayDeque<Timeout<K>>> slots;
+    private final int mask;
+    private long currentTick;
+
+    /**
+     * @param wheelSize antal slots; rundes op til en potens af 2
+     */
+    public HoldTimerWheel(long tickMillis, int wheelSize, long startMillis) {
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.tickMillis = tickMillis;
+        this.mask = size - 1;
+        this.slots = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            slots.add(new ArrayDeque<>());
+        }
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    public synchronized Timeout<K> schedule(K key, long deadlineMillis) {
+        long tick = Math.max((deadlineMillis + tickMillis - 1) / tickMillis, currentTick);
+        Timeout<K> timeout = new Timeout<>(key, tick);
+        slots.get((int) (tick & mask)).add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Behandler alle tik til og med nowMillis og kalder onExpired for hver udløbet nøgle,
+     * uden for hjulets lås.
+     */
+    public void advance(long nowMillis, Consumer<K> onExpired) {
+        List<K> expired = new ArrayList<>();
+        synchronized (this) {
+            long nowTick = nowMillis / tickMillis;
+            long lastTick = Math.min(nowTick, currentTick + mask);
+            for (long tick = currentTick; tick <= lastTick; tick++) {
+                Iterator<Timeout<K>> it = slots.get((int) (tick & mask)).iterator();
+                while (it.hasNext()) {
+                    Timeout<K> timeout = it.next();
+                    if (timeout.cancelled) {
+                        it.remove();
+                    } else if (timeout.deadlineTick <= nowTick) {
+                        it.remove();
+                        expired.add(timeout.key);
+                    }
+                }
+            }
+            currentTick = Math.max(currentTick, nowTick + 1);
+        }
+        for (K key : expired) {
+            onExpired.accept(key);
+        }
+    }
+
+    public static final class Timeout<K> {
+        private final K key;
+        private final long deadlineTick;
+        private volatile boolean cancelled;
+
+        private Timeout(K key, long deadlineTick) {
+            this.key = key;
+            this.deadlineTick = deadlineTick;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
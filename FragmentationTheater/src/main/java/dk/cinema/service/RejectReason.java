@@ -0,0 +1,29 @@
+package dk.cinema.service;
+
+/**
+ * Årsager til at en booking eller et hold afvises. Navnene sendes som "reason" i API'et.
+ */
+public enum RejectReason {
+    SEAT_UNAVAILABLE("Pladsen er ikke tilgængelig"),
+    DIFFERENT_ROWS("Alle sæder skal være i samme række"),
+    NOT_CONTIGUOUS("Sæderne skal være sammenhængende"),
+    FRAGMENTATION_PREVENTION("Bookingen ville efterlade isolerede pladser"),
+    INVALID_REQUEST("Ugyldig bookingforespørgsel"),
+    HOLD_NOT_FOUND("Holdet findes ikke eller er udløbet"),
+    HOLD_EXPIRED("Holdet er udløbet"),
+    NO_SEATS_AVAILABLE("Der er ingen ledige sammenhængende pladser til hele selskabet"),
+    JOURNAL_UNAVAILABLE("Bookingen kunne ikke gemmes. Prøv igen senere");
+
+    private final String message;
+
+    RejectReason(String message) {
+        this.message = message;
+    }
+
+    /**
+     * Standardbeskeden; BookingResult.getMessage giver en mere præcis besked hvor den kan.
+     */
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,123 @@
+package dk.cinema.service;
+
+import dk.cinema.metrics.Histogram;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Tabel af låse fordelt over salens rækker. Række r beskyttes af stribe r mod antallet af
+ * striber. Flere striber tages altid i stigende rækkefølge, så to operationer aldrig kan
+ * vente på hinanden i ring.
+ *
+ * En stribe kan også tages delt. Delte holdere udelukker ikke hinanden, kun dem der tager
+ * striben eksklusivt; det bruges af operationer der selv synkroniserer med compare-and-set,
+ * men som ikke må overlappe en operation på hele salen.
+ *
+ * Alle erhvervelser tælles, og ventetiden måles for dem der ikke fik låsen med det samme;
+ * en ledig lås koster derfor ingen tidsmåling.
+ */
+public class RowLockTable {
+    private final ReentrantReadWriteLock[] stripes;
+    private final LongAdder acquisitions = new LongAdder();
+    private final Histogram waitTimes = Histogram.latency();
+
+    public RowLockTable(int stripeCount) {
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("Der skal være mindst én stribe");
+        }
+        this.stripes = new ReentrantReadWriteLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    public long getAcquisitions() {
+        return acquisitions.sum();
+    }
+
+    public Histogram getWaitTimes() {
+        return waitTimes;
+    }
+
+    public void lock(int row) {
+        acquire(stripes[stripeOf(row)].writeLock());
+    }
+
+    public void unlock(int row) {
+        stripes[stripeOf(row)].writeLock().unlock();
+    }
+
+    /**
+     * Tager rækkens stribe delt: venter kun hvis striben er taget eksklusivt.
+     */
+    public void lockShared(int row) {
+        acquire(stripes[stripeOf(row)].readLock());
+    }
+
+    public void unlockShared(int row) {
+        stripes[stripeOf(row)].readLock().unlock();
+    }
+
+    /**
+     * Låser striberne for de givne rækker i stigende rækkefølge. Returnerer de låste striber,
+     * som skal gives til unlockStripes.
+     */
+    public int[] lockRows(int... rows) {
+        int[] held = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            held[i] = stripeOf(rows[i]);
+        }
+        Arrays.sort(held);
+
+        int count = 0;
+        for (int i = 0; i < held.length; i++) {
+            if (i == 0 || held[i] != held[i - 1]) {
+                held[count++] = held[i];
+            }
+        }
+        held = Arrays.copyOf(held, count);
+
+        for (int stripe : held) {
+            acquire(stripes[stripe].writeLock());
+        }
+        return held;
+    }
+
+    public void unlockStripes(int[] held) {
+        for (int i = held.length - 1; i >= 0; i--) {
+            stripes[held[i]].writeLock().unlock();
+        }
+    }
+
+    public void lockAll() {
+        for (ReentrantReadWriteLock stripe : stripes) {
+            acquire(stripe.writeLock());
+        }
+    }
+
+    public void unlockAll() {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].writeLock().unlock();
+        }
+    }
+
+    private void acquire(Lock lock) {
+        acquisitions.increment();
+        if (lock.tryLock()) return;
+
+        long start = System.nanoTime();
+        lock.lock();
+        waitTimes.record(System.nanoTime() - start);
+    }
+
+    private int stripeOf(int row) {
+        return Math.floorMod(row, stripes.length);
+    }
+}
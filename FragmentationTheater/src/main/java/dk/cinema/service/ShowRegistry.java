@@ -0,0 +1,212 @@
+package dk.cinema.service;
+
+import dk.cinema.model.Show;
+import dk.cinema.model.VenueLayout;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Register over forestillinger. Hver forestilling har sin egen sal og BookingService,
+ * så bookinger til én forestilling aldrig venter på låsen for en anden.
+ *
+ * Får registret en datamappe, journaliseres hver forestilling i {id}.journal, og en
+ * forestilling der oprettes igen med samme id, genopbygges fra sit seneste snapshot
+ * ({id}.snapshot) og journalen efter det. Titel og opbygning gemmes i {id}.show, så
+ * restoreShows() kan genåbne forestillinger der er oprettet gennem API'et, efter en
+ * genstart.
+ */
+public class ShowRegistry {
+    private static final String MANIFEST_SUFFIX = ".show";
+    private static final Pattern VALID_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    /**
+     * Højeste antal forestillinger. POST /api/shows kræver ikke login, så antallet af sale
+     * i hukommelsen og filer i datamappen skal være begrænset.
+     */
+    public static final int MAX_SHOWS = 256;
+
+    private final Map<String, Entry> shows = new ConcurrentHashMap<>();
+    private final Path dataDir;
+
+    public ShowRegistry() {
+        this(null);
+    }
+
+    public ShowRegistry(Path dataDir) {
+        this.dataDir = dataDir;
+    }
+
+    /**
+     * Opretter en forestilling i en rektangulær sal. Salen må højst have
+     * VenueLayout.MAX_INLINE_POSITIONS sæder, da størrelsen kan komme fra en request.
+     */
+    public synchronized Show createShow(String id, String title, int rows, int seatsPerRow) {
+        if (rows < 1 || seatsPerRow < 1) {
+            throw new IllegalArgumentException("Salen skal have mindst én række og ét sæde");
+        }
+        if ((long) rows * seatsPerRow > VenueLayout.MAX_INLINE_POSITIONS) {
+            throw new IllegalArgumentException("Salen må højst have " + VenueLayout.MAX_INLINE_POSITIONS + " sæder");
+        }
+        return createShow(id, title, VenueLayout.rectangular(rows, seatsPerRow));
+    }
+
+    /**
+     * Opretter en forestilling i et spillested med opbygningen layout. Id'et bruges i
+     * filnavne og URL'er og må kun bestå af bogstaverne A-Z, cifre, _ og -.
+     */
+    public synchronized Show createShow(String id, String title, VenueLayout layout) {
+        if (id == null || !VALID_ID.matcher(id).matches()) {
+            throw new IllegalArgumentException("Ugyldigt forestillings-id: " + id);
+        }
+
+        if (shows.containsKey(id)) {
+            throw new IllegalArgumentException("Forestillingen findes allerede: " + id);
+        }
+        if (shows.size() >= MAX_SHOWS) {
+            throw new IllegalArgumentException("Der kan højst være " + MAX_SHOWS + " forestillinger");
+        }
+
+        Show show = new Show(id, title);
+        BookingService service = new BookingService(layout, ConcurrencyMode.OPTIMISTIC);
+        if (dataDir != null) {
+            try {
+                writeManifest(id, title, layout);
+                service.openJournal(dataDir.resolve(id + ".journal"), dataDir.resolve(id + ".snapshot"));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Kunne ikke åbne journalen for " + id, e);
+            }
+        }
+        shows.put(id, new Entry(show, service));
+        return show;
+    }
+
+    /**
+     * Genåbner hver forestilling med en {id}.show-fil i datamappen som ikke allerede er
+     * oprettet, med journal og snapshot. Returnerer antallet af genåbnede forestillinger.
+     */
+    public synchronized int restoreShows() throws IOException {
+        if (dataDir == null || !Files.isDirectory(dataDir)) return 0;
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dataDir, "*" + MANIFEST_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(Comparator.naturalOrder());
+
+        int restored = 0;
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            String id = name.substring(0, name.length() - MANIFEST_SUFFIX.length());
+            if (shows.containsKey(id)) continue;
+
+            Properties manifest = new Properties();
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                manifest.load(reader);
+            }
+            try {
+                String text = manifest.getProperty("layout");
+                VenueLayout layout = text != null
+                        ? VenueLayout.parse(text)
+                        : VenueLayout.rectangular(Integer.parseInt(manifest.getProperty("rows")),
+                                Integer.parseInt(manifest.getProperty("seatsPerRow")));
+                createShow(id, manifest.getProperty("title", id), layout);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Ugyldig forestillingsfil " + file + ": " + e.getMessage(), e);
+            }
+            restored++;
+        }
+        return restored;
+    }
+
+    /**
+     * Skriver forestillingens titel og opbygning til {id}.show. Den unavngivne sektion i en
+     * rektangulær sal gemmes som rækker og sæder pr. række.
+     */
+    private void writeManifest(String id, String title, VenueLayout layout) throws IOException {
+        Properties manifest = new Properties();
+        manifest.setProperty("title", title == null ? id : title);
+        if (layout.getSections().size() == 1 && layout.getSections().get(0).getName().isEmpty()) {
+            manifest.setProperty("rows", String.valueOf(layout.getRows()));
+            manifest.setProperty("seatsPerRow", String.valueOf(layout.getWidth()));
+        } else {
+            manifest.setProperty("layout", layout.toText());
+        }
+
+        Files.createDirectories(dataDir);
+        Path file = dataDir.resolve(id + MANIFEST_SUFFIX);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            manifest.store(writer, null);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public Show getShow(String id) {
+        Entry entry = shows.get(id);
+        return entry == null ? null : entry.show;
+    }
+
+    public BookingService getService(String id) {
+        Entry entry = shows.get(id);
+        return entry == null ? null : entry.service;
+    }
+
+    public List<Show> getShows() {
+        List<Show> result = new ArrayList<>();
+        for (Entry entry : shows.values()) {
+            result.add(entry.show);
+        }
+        result.sort(Comparator.comparing(Show::getId));
+        return result;
+    }
+
+    /**
+     * Frigiver udløbne holds i alle forestillinger.
+     */
+    public void expireHolds() {
+        for (Entry entry : shows.values()) {
+            entry.service.expireHolds();
+        }
+    }
+
+    /**
+     * Skriver et snapshot af hver forestilling. Kaldes periodisk fra en baggrundstråd.
+     */
+    public void writeSnapshots() throws IOException {
+        if (dataDir == null) return;
+        for (Map.Entry<String, Entry> entry : shows.entrySet()) {
+            entry.getValue().service.writeSnapshot(dataDir.resolve(entry.getKey() + ".snapshot"));
+        }
+    }
+
+    /**
+     * Skriver snapshots og lukker alle journaler, så de sidste poster er på disken før
+     * processen stopper.
+     */
+    public void close() throws IOException {
+        writeSnapshots();
+        for (Entry entry : shows.values()) {
+            entry.service.closeJournal();
+        }
+    }
+
+    private static class Entry {
+        final Show show;
+        final BookingService service;
+
+        Entry(Show show, BookingService service) {
+            this.show = show;
+            this.service = service;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package dk.cinema.service;
+
+import dk.cinema.model.CinemaHall;
+import dk.cinema.model.FreeRuns;
+import dk.cinema.model.SeatBlock;
+
+import java.util.*;
+
+/**
+ * Finder de K lovlige placeringer der ligger tættest på en ønsket position i hele salen.
+ * Afstanden er rækkeafstanden vægtet med rowWeight plus afstanden i sæder mellem
+ * placeringernes første sæder.
+ *
+ * Rækkerne besøges udad fra den ønskede række, og de K bedste kandidater holdes i en
+ * prioritetskø med den dårligste øverst. Når en rækkes afstand alene er større end den
+ * K'te bedste, kan ingen fjernere række gøre det bedre, og søgningen stopper. Inden for
+ * en ledig sekvens undersøges kun de placeringer der ligger nærmest det ønskede sæde, så
+ * arbejdet afhænger af K og ikke af salens størrelse.
+ */
+final class SuggestionEngine {
+    private static final Comparator<Candidate> BEST_FIRST = Comparator
+            .comparingDouble((Candidate c) -> c.distance)
+            .thenComparingInt(c -> c.row)
+            .thenComparingInt(c -> c.start);
+
+    private final CinemaHall hall;
+    private final double rowWeight;
+
+    SuggestionEngine(CinemaHall hall, double rowWeight) {
+        this.hall = hall;
+        this.rowWeight = rowWeight;
+    }
+
+    /**
+     * Op til limit placeringer til partySize personer, sorteret efter afstand fra sædet
+     * (row, seat). Som sidste udvej er alle placeringer i en stor nok sekvens lovlige.
+     */
+    List<SeatBlock> suggest(int row, int seat, int partySize, int limit, boolean lastResort) {
+        if (limit < 1 || partySize < 1 || partySize > hall.getSeatsPerRow()) {
+            return new ArrayList<>();
+        }
+
+        PriorityQueue<Candidate> best = new PriorityQueue<>(limit + 1, BEST_FIRST.reversed());
+        for (int d = 0; ; d++) {
+            int above = row - d;
+            int below = row + d;
+            if (above < 0 && below >= hall.getRows()) break;
+
+            double rowCost = rowWeight * d;
+            if (best.size() == limit && rowCost > best.peek().distance) break;
+
+            if (above >= 0 && above < hall.getRows()) {
+                scanRow(above, rowCost, seat, partySize, limit, lastResort, best);
+            }
+            if (d > 0 && below >= 0 && below < hall.getRows()) {
+                scanRow(below, rowCost, seat, partySize, limit, lastResort, best);
+            }
+        }
+
+        List<Candidate> sorted = new ArrayList<>(best);
+        sorted.sort(BEST_FIRST);
+        List<SeatBlock> blocks = new ArrayList<>(sorted.size());
+        for (Candidate candidate : sorted) {
+            blocks.add(new SeatBlock(candidate.row, candidate.start, partySize));
+        }
+        return blocks;
+    }
+
+    private void scanRow(int row, double rowCost, int seat, int partySize, int limit, boolean lastResort,
+                         PriorityQueue<Candidate> best) {
+        FreeRuns runs = hall.getFreeRuns(row);
+        for (int run = 0; run < runs.getCount(); run++) {
+            int runLength = runs.getLength(run);
+            if (runLength < partySize) continue;
+            if (!lastResort && BookingService.hasOtherIsolated(runs, run)) continue;
+
+            int runStart = runs.getStart(run);
+            int maxOffset = runLength - partySize;
+            int nearest = Math.max(0, Math.min(maxOffset, seat - runStart));
+
+            // Afstanden vokser udad fra nearest, så hver side stopper ved første placering
+            // der ikke kan komme i køen.
+            for (int offset = nearest; offset >= 0; offset--) {
+                if (!offer(row, rowCost, seat, runStart, runLength, offset, partySize, limit, lastResort, best)) break;
+            }
+            for (int offset = nearest + 1; offset <= maxOffset; offset++) {
+                if (!offer(row, rowCost, seat, runStart, runLength, offset, partySize, limit, lastResort, best)) break;
+            }
+        }
+    }
+
+    /**
+     * Tilbyder placeringen til køen. Returnerer false når den og alle fjernere placeringer
+     * på samme side er for langt væk.
+     */
+    private boolean offer(int row, double rowCost, int seat, int runStart, int runLength, int offset,
+                          int partySize, int limit, boolean lastResort, PriorityQueue<Candidate> best) {
+        int start = runStart + offset;
+        double distance = rowCost + Math.abs(start - seat);
+        if (best.size() == limit && distance > best.peek().distance) return false;
+        if (!lastResort && !BookingService.isLegalOffset(runLength, offset, partySize)) return true;
+
+        Candidate candidate = new Candidate(row, start, distance);
+        if (best.size() < limit) {
+            best.add(candidate);
+        } else if (BEST_FIRST.compare(candidate, best.peek()) < 0) {
+            best.poll();
+            best.add(candidate);
+        }
+        return true;
+    }
+
+    private static final class Candidate {
+        final int row;
+        final int start;
+        final double distance;
+
+        Candidate(int row, int start, double distance) {
+            this.row = row;
+            this.start = start;
+            this.distance = distance;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package dk.cinema.service;
+
+import com.sun.net.httpserver.HttpServer;
+import dk.cinema.controller.BookingController;
+import dk.cinema.model.BookingRequest;
+import org.json.JSONObject;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BookingControllerTest {
+
+    AtomicLong now = new AtomicLong(1_000);
+    BookingService service;
+    HttpServer server;
+    HttpClient client;
+    String base;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        service = new BookingService(5, 8, ConcurrencyMode.OPTIMISTIC, now::get);
+        BookingController controller = new BookingController(service);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/cinema", controller::handleCinemaState);
+        server.createContext("/api/book", controller::handleBooking);
+        server.createContext("/api/hold", controller::handleHold);
+        server.start();
+        client = HttpClient.newHttpClient();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void testCinemaEtagIgnoresRejections() throws Exception {
+        HttpResponse<String> first = get("/api/cinema", null);
+        assertEquals(200, first.statusCode());
+        String etag = first.headers().firstValue("ETag").orElseThrow();
+
+        assertEquals(304, get("/api/cinema", etag).statusCode());
+
+        assertTrue(post("/api/book", "{\"seatIds\":[\"0-0\",\"0-1\"]}").body().contains("\"success\":true"));
+        HttpResponse<String> booked = get("/api/cinema", etag);
+        assertEquals(200, booked.statusCode());
+        String bookedTag = booked.headers().firstValue("ETag").orElseThrow();
+        assertNotEquals(etag, bookedTag);
+
+        long version = service.getVersion();
+        assertTrue(post("/api/book", "{\"seatIds\":[\"0-0\",\"0-1\"]}").body().contains("\"success\":false"));
+        assertTrue(service.getVersion() > version, "Afvisningen tæller salens version op");
+        HttpResponse<String> afterRejection = get("/api/cinema", bookedTag);
+        assertEquals(304, afterRejection.statusCode());
+        assertEquals(bookedTag, afterRejection.headers().firstValue("ETag").orElseThrow());
+
+        BookingResult hold = service.holdSeats(new BookingRequest(List.of("3-0", "3-1"), "Hold"), 60_000);
+        String heldTag = get("/api/cinema", bookedTag).headers().firstValue("ETag").orElseThrow();
+        assertNotEquals(bookedTag, heldTag);
+        assertTrue(service.confirmHold(hold.getHoldId()).isSuccess());
+        HttpResponse<String> confirmed = get("/api/cinema", heldTag);
+        assertEquals(200, confirmed.statusCode(), "Et bekræftet hold ændrer \"held\" i svaret");
+    }
+
+    @Test
+    void testConfirmStatusFollowsReason() throws Exception {
+        String holdId = hold("0-0", "0-1");
+        HttpResponse<String> confirmed = post("/api/hold/" + holdId + "/confirm", "");
+        assertEquals(200, confirmed.statusCode());
+        assertTrue(new JSONObject(confirmed.body()).getBoolean("success"));
+
+        HttpResponse<String> again = post("/api/hold/" + holdId + "/confirm", "");
+        assertEquals(404, again.statusCode());
+        assertEquals("HOLD_NOT_FOUND", new JSONObject(again.body()).getString("reason"));
+        assertEquals(404, post("/api/hold/ukendt/confirm", "").statusCode());
+
+        String expiring = hold("2-0", "2-1");
+        now.addAndGet(10_000);
+        HttpResponse<String> expired = post("/api/hold/" + expiring + "/confirm", "");
+        assertEquals(410, expired.statusCode());
+        assertEquals("HOLD_EXPIRED", new JSONObject(expired.body()).getString("reason"));
+        assertFalse(service.getCinemaHall().isOccupied(2, 0));
+    }
+
+    @Test
+    void testConfirmWithFailedJournalGives503() throws Exception {
+        Path full = Path.of("/dev/full");
+        Assumptions.assumeTrue(Files.isWritable(full), "Kræver /dev/full");
+        service.openJournal(full);
+        String holdId = hold("1-0", "1-1");
+        service.bookSeats(new BookingRequest(List.of("0-0", "0-1"), "Skrives ikke"));
+        assertThrows(IOException.class, () -> service.getJournal().sync(), "Flusheren fejler på en fuld disk");
+
+        HttpResponse<String> response = post("/api/hold/" + holdId + "/confirm", "");
+        assertEquals(503, response.statusCode());
+        assertEquals("JOURNAL_UNAVAILABLE", new JSONObject(response.body()).getString("reason"));
+        assertTrue(service.getCinemaHall().isHeld(1, 0));
+        assertThrows(IOException.class, service::closeJournal);
+    }
+
+    String hold(String... seatIds) throws Exception {
+        HttpResponse<String> response = post("/api/hold",
+                new JSONObject().put("seatIds", List.of(seatIds)).put("ttlSeconds", 10).toString());
+        assertEquals(200, response.statusCode());
+        return new JSONObject(response.body()).getString("holdId");
+    }
+
+    HttpResponse<String> get(String path, String ifNoneMatch) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(base + path)).GET();
+        if (ifNoneMatch != null) request.header("If-None-Match", ifNoneMatch);
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    HttpResponse<String> post(String path, String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(base + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body)).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -3,9 +3,15 @@ package dk.cinema.service;
 import dk.cinema.model.BookingRequest;
 import dk.cinema.model.CinemaHall;
 import dk.cinema.model.Seat;
+import dk.cinema.model.SeatBlock;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -26,9 +32,9 @@ public class BookingServiceTest {
                 "Alice"
         );
 
-        Map<String, Object> result = service.bookSeats(req);
+        BookingResult result = service.bookSeats(req);
 
-        assertTrue((Boolean) result.get("success"));
+        assertTrue(result.isSuccess());
         assertEquals("0-0", service.getCinemaHall().getSeat(0, 0).getId());
         assertTrue(service.getCinemaHall().getSeat(0, 0).isOccupied());
     }
@@ -44,11 +50,11 @@ public class BookingServiceTest {
         // Try to book 1-3 (single seat)
         // This WOULD isolate 1-4, so it should be REJECTED
         BookingRequest singleSeat = new BookingRequest(List.of("1-3"), "Bad");
-        Map<String, Object> result = service.bookSeats(singleSeat);
+        BookingResult result = service.bookSeats(singleSeat);
 
-        assertFalse((Boolean) result.get("success"),
+        assertFalse(result.isSuccess(),
                 "Single seat booking should be rejected when it isolates another seat");
-        assertEquals("FRAGMENTATION_PREVENTION", result.get("reason"));
+        assertEquals(RejectReason.FRAGMENTATION_PREVENTION, result.getReason());
     }
 
     @Test
@@ -58,9 +64,9 @@ public class BookingServiceTest {
                 "Bob"
         );
 
-        Map<String, Object> result = service.bookSeats(req);
+        BookingResult result = service.bookSeats(req);
 
-        assertTrue((Boolean) result.get("success"));
+        assertTrue(result.isSuccess());
     }
 
     @Test
@@ -70,10 +76,10 @@ public class BookingServiceTest {
                 "Team"
         );
 
-        Map<String, Object> result = service.bookSeats(req);
+        BookingResult result = service.bookSeats(req);
 
-        assertFalse((Boolean) result.get("success"));
-        assertEquals("NOT_CONTIGUOUS", result.get("reason"));
+        assertFalse(result.isSuccess());
+        assertEquals(RejectReason.NOT_CONTIGUOUS, result.getReason());
     }
 
     @Test
@@ -83,10 +89,10 @@ public class BookingServiceTest {
                 "Eve"
         );
 
-        Map<String, Object> result = service.bookSeats(req);
+        BookingResult result = service.bookSeats(req);
 
-        assertFalse((Boolean) result.get("success"));
-        assertEquals("DIFFERENT_ROWS", result.get("reason"));
+        assertFalse(result.isSuccess());
+        assertEquals(RejectReason.DIFFERENT_ROWS, result.getReason());
     }
 
     @Test
@@ -102,11 +108,11 @@ public class BookingServiceTest {
                 "Group"
         );
 
-        Map<String, Object> result = service.bookSeats(problematic);
+        BookingResult result = service.bookSeats(problematic);
 
-        assertFalse((Boolean) result.get("success"),
+        assertFalse(result.isSuccess(),
                 "Booking should be rejected as it creates isolated seats");
-        assertEquals("FRAGMENTATION_PREVENTION", result.get("reason"));
+        assertEquals(RejectReason.FRAGMENTATION_PREVENTION, result.getReason());
     }
 
     @Test
@@ -144,9 +150,9 @@ public class BookingServiceTest {
                 "LastResort"
         );
 
-        Map<String, Object> result = service.bookSeats(req);
+        BookingResult result = service.bookSeats(req);
 
-        assertTrue((Boolean) result.get("success"),
+        assertTrue(result.isSuccess(),
                 "Last resort booking should be allowed when only 3 seats remain");
     }
 
@@ -252,12 +258,12 @@ public class BookingServiceTest {
 
         // Now try to book [0-3, 0-4] which would isolate 0-2
         BookingRequest wouldFragment = new BookingRequest(List.of("0-3", "0-4"), "Setup2");
-        Map<String, Object> result = service.bookSeats(wouldFragment);
+        BookingResult result = service.bookSeats(wouldFragment);
 
         // This booking should be REJECTED because it would isolate 0-2
-        assertFalse((Boolean) result.get("success"),
+        assertFalse(result.isSuccess(),
                 "Booking should be rejected as it would create isolated seat");
-        assertEquals("FRAGMENTATION_PREVENTION", result.get("reason"));
+        assertEquals(RejectReason.FRAGMENTATION_PREVENTION, result.getReason());
 
         // Verify fragmentation is still 0 (no isolation was allowed)
         double frag = service.calculateFragmentation();
@@ -277,11 +283,11 @@ public class BookingServiceTest {
         // Now seats 1-3 and 1-4 are available
         // Booking just 1-3 would isolate 1-4, should be rejected
         BookingRequest wouldIsolate = new BookingRequest(List.of("1-3"), "BadSingle");
-        Map<String, Object> result = service.bookSeats(wouldIsolate);
+        BookingResult result = service.bookSeats(wouldIsolate);
 
-        assertFalse((Boolean) result.get("success"),
+        assertFalse(result.isSuccess(),
                 "Single seat booking that would isolate another seat should be rejected");
-        assertEquals("FRAGMENTATION_PREVENTION", result.get("reason"));
+        assertEquals(RejectReason.FRAGMENTATION_PREVENTION, result.getReason());
     }
 
     @Test
@@ -310,9 +316,514 @@ public class BookingServiceTest {
         //        ↑
         //      2-2 booking doesn't isolate 2-1 (2-0 is still free to the left)
         BookingRequest okSeat = new BookingRequest(List.of("2-2"), "OK");
-        Map<String, Object> result = service.bookSeats(okSeat);
+        BookingResult result = service.bookSeats(okSeat);
 
-        assertTrue((Boolean) result.get("success"),
+        assertTrue(result.isSuccess(),
                 "Single seat booking should succeed when it doesn't create isolation");
     }
+
+    @Test
+    void testFragmentationAcrossWordBoundaryInWideRow() {
+        BookingService wide = new BookingService(2, 100);
+
+        // Seat 0-63 is the last bit of the first word, 0-64 the first of the second
+        wide.bookSeats(new BookingRequest(List.of("0-60", "0-61", "0-62"), "Left"));
+
+        BookingResult result = wide.bookSeats(new BookingRequest(List.of("0-64", "0-65"), "Right"));
+
+        assertFalse(result.isSuccess(),
+                "Booking should be rejected as it isolates 0-63 across the word boundary");
+        assertEquals(List.of("0-63"), result.getIsolatedSeats());
+        assertEquals("0-99", wide.getCinemaHall().getSeat(0, 99).getId());
+        assertTrue(wide.getAvailableSeatsForBooking(2).contains("0-98"));
+    }
+
+    @Test
+    void testCountersFollowBookAndRelease() {
+        BookingService small = new BookingService(1, 4);
+        small.bookSeats(new BookingRequest(List.of("0-0", "0-1"), "A"));
+
+        // [X][X][ ][ ] - no isolation yet
+        assertEquals(50.0, small.calculateUtilization(), 0.1);
+        assertEquals(0.0, small.calculateFragmentation(), 0.1);
+
+        // Last resort: [X][X][X][ ] isolates 0-3
+        small.bookSeats(new BookingRequest(List.of("0-2"), "B"));
+        assertEquals(100.0, small.calculateFragmentation(), 0.1);
+        assertEquals(3, small.getStatistics().get("occupiedSeats"));
+
+        // Releasing through the seat view updates the counters as well
+        small.getCinemaHall().getSeat(0, 2).release();
+        assertEquals(0.0, small.calculateFragmentation(), 0.1);
+        assertEquals(2, small.getStatistics().get("occupiedSeats"));
+    }
+
+    @ParameterizedTest
+    @EnumSource(ConcurrencyMode.class)
+    void testConcurrentBookingsNeverDoubleBook(ConcurrencyMode mode) throws Exception {
+        BookingService shared = new BookingService(4, 70, mode);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        AtomicInteger bookedSeats = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < 8; t++) {
+            long seed = t;
+            futures.add(pool.submit(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 500; i++) {
+                    int row = random.nextInt(4);
+                    int start = random.nextInt(68);
+                    int size = 1 + random.nextInt(3);
+                    List<String> ids = new ArrayList<>();
+                    for (int s = start; s < start + size && s < 70; s++) {
+                        ids.add(row + "-" + s);
+                    }
+                    BookingResult result = shared.bookSeats(new BookingRequest(ids, "T"));
+                    if (result.isSuccess()) {
+                        bookedSeats.addAndGet(ids.size());
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+
+        CinemaHall hall = shared.getCinemaHall();
+        int occupied = 0;
+        for (Seat seat : hall.getAllSeats()) {
+            if (seat.isOccupied()) occupied++;
+        }
+        assertEquals(bookedSeats.get(), occupied, "Every seat must belong to exactly one booking");
+        assertEquals(occupied, shared.getStatistics().get("occupiedSeats"));
+
+        int isolated = 0;
+        for (int row = 0; row < hall.getRows(); row++) {
+            isolated += hall.getIsolatedSeats(row);
+        }
+        assertEquals(isolated, hall.getIsolatedSeats());
+    }
+
+    @Test
+    void testConcurrentResetLeavesNoHalfBookings() throws Exception {
+        BookingService shared = new BookingService(4, 40, ConcurrencyMode.OPTIMISTIC);
+        ExecutorService pool = Executors.newFixedThreadPool(5);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+            long seed = t;
+            futures.add(pool.submit(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 2000; i++) {
+                    int row = random.nextInt(4);
+                    int start = random.nextInt(38);
+                    BookingResult result = shared.bookSeats(
+                            new BookingRequest(List.of(row + "-" + start, row + "-" + (start + 1)), "T"));
+                    if (result.isSuccess() && random.nextBoolean()) {
+                        shared.cancelBooking(result.getBookingId());
+                    }
+                }
+            }));
+        }
+        futures.add(pool.submit(() -> {
+            for (int i = 0; i < 200; i++) {
+                shared.reset();
+            }
+        }));
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+
+        CinemaHall hall = shared.getCinemaHall();
+        Map<String, SeatBlock> bookings = shared.snapshot().getBookings();
+        int booked = 0;
+        for (Map.Entry<String, SeatBlock> entry : bookings.entrySet()) {
+            SeatBlock block = entry.getValue();
+            for (int s = block.getStart(); s < block.getEnd(); s++) {
+                assertEquals(entry.getKey(), hall.getBookingId(block.getRow(), s), "Bookingen ejer sine sæder");
+            }
+            booked += block.getLength();
+        }
+        assertEquals(booked, hall.getOccupiedSeats(), "Ingen optagne sæder uden booking");
+    }
+
+    @Test
+    void testBatchBookingEvaluatesInOrder() {
+        List<BookingResult> results = service.bookSeatsBatch(List.of(
+                new BookingRequest(List.of("0-0", "0-1"), "First"),
+                new BookingRequest(List.of("0-1", "0-2"), "Overlap"),
+                new BookingRequest(List.of("x-y"), "Broken"),
+                new BookingRequest(List.of("1-3", "1-4"), "OtherRow")));
+
+        assertEquals(4, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertEquals(RejectReason.SEAT_UNAVAILABLE, results.get(1).getReason());
+        assertEquals(RejectReason.INVALID_REQUEST, results.get(2).getReason());
+        assertTrue(results.get(3).isSuccess());
+        assertEquals(2, service.getStatistics().get("totalBookings"));
+    }
+
+    @Test
+    void testEmptyOrMalformedRequestIsRejected() {
+        assertEquals(RejectReason.INVALID_REQUEST,
+                service.bookSeats(new BookingRequest(List.of(), "Empty")).getReason());
+        assertEquals(RejectReason.INVALID_REQUEST,
+                service.bookSeats(new BookingRequest(new int[0], "Empty")).getReason());
+        assertEquals(RejectReason.INVALID_REQUEST,
+                service.holdSeats(new BookingRequest(List.of(), "Empty"), 60_000).getReason());
+        assertEquals(RejectReason.INVALID_REQUEST,
+                service.bookSeats(new BookingRequest(List.of("0-0", "0-x"), "Broken")).getReason());
+        assertEquals(0, service.getCinemaHall().getOccupiedSeats());
+        assertEquals(0, service.getStatistics().get("totalBookings"));
+    }
+
+    @Test
+    void testHoldBlocksSeatsUntilItExpires() {
+        AtomicLong now = new AtomicLong(1_000);
+        BookingService held = new BookingService(5, 8, ConcurrencyMode.OPTIMISTIC, now::get);
+
+        BookingResult hold = held.holdSeats(new BookingRequest(List.of("0-0", "0-1"), "Alice"), 60_000);
+        assertTrue(hold.isSuccess());
+        assertTrue(held.getCinemaHall().isHeld(0, 0));
+
+        BookingResult competing = held.bookSeats(new BookingRequest(List.of("0-1", "0-2"), "Bob"));
+        assertEquals(RejectReason.SEAT_UNAVAILABLE, competing.getReason());
+
+        now.addAndGet(59_000);
+        held.expireHolds();
+        assertTrue(held.getCinemaHall().isOccupied(0, 0));
+
+        now.addAndGet(1_000);
+        held.expireHolds();
+        assertFalse(held.getCinemaHall().isOccupied(0, 0));
+        assertEquals(0, held.getCinemaHall().getHeldSeats());
+        assertEquals(RejectReason.HOLD_NOT_FOUND, held.confirmHold(hold.getHoldId()).getReason());
+    }
+
+    @Test
+    void testExpiredHoldCannotBeConfirmedBeforeTheSweep() {
+        AtomicLong now = new AtomicLong(1_000);
+        BookingService held = new BookingService(5, 8, ConcurrencyMode.OPTIMISTIC, now::get);
+
+        String holdId = held.holdSeats(new BookingRequest(List.of("1-0", "1-1"), "Dave"), 10_000)
+                .getHoldId();
+        now.addAndGet(10_000);
+
+        BookingResult confirmed = held.confirmHold(holdId);
+        assertEquals(RejectReason.HOLD_EXPIRED, confirmed.getReason());
+        assertFalse(held.getCinemaHall().isOccupied(1, 0), "Sæderne frigives uden at vente på fejningen");
+        assertEquals(0, held.getCinemaHall().getHeldSeats());
+        assertEquals(0, held.getStatistics().get("totalBookings"));
+
+        held.expireHolds();
+        assertFalse(held.getCinemaHall().isOccupied(1, 0));
+    }
+
+    @Test
+    void testConfirmHoldTurnsItIntoBooking() {
+        AtomicLong now = new AtomicLong(0);
+        BookingService held = new BookingService(5, 8, ConcurrencyMode.ROW_STRIPED, now::get);
+
+        String holdId = held.holdSeats(new BookingRequest(List.of("2-3", "2-4"), "Carol"), 10_000)
+                .getHoldId();
+        BookingResult confirmed = held.confirmHold(holdId);
+        assertTrue(confirmed.isSuccess());
+
+        now.addAndGet(20_000);
+        held.expireHolds();
+        assertTrue(held.getCinemaHall().isOccupied(2, 3));
+        assertFalse(held.getCinemaHall().isHeld(2, 3));
+        assertEquals(confirmed.getBookingId(), held.getCinemaHall().getBookingId(2, 4));
+        assertEquals(1, held.getStatistics().get("totalBookings"));
+        assertFalse(held.releaseHold(holdId));
+    }
+
+    @Test
+    void testCancelBookingReleasesOnlyItsSeats() {
+        String first = service.bookSeats(new BookingRequest(List.of("3-0", "3-1"), "A")).getBookingId();
+        String second = service.bookSeats(new BookingRequest(List.of("3-2", "3-3"), "B")).getBookingId();
+
+        assertTrue(service.cancelBooking(first));
+        assertFalse(service.cancelBooking(first));
+
+        CinemaHall hall = service.getCinemaHall();
+        assertFalse(hall.isOccupied(3, 0));
+        assertFalse(hall.isOccupied(3, 1));
+        assertEquals(second, hall.getBookingId(3, 2));
+        assertEquals(2, hall.getOccupiedSeats());
+        assertEquals(0, hall.getIsolatedSeats());
+        assertEquals(1, service.getStatistics().get("cancelledBookings"));
+
+        assertTrue(service.bookSeats(new BookingRequest(List.of("3-0", "3-1"), "C")).isSuccess());
+    }
+
+    @Test
+    void testReleaseOnlyFreesSeatsOfTheOwner() {
+        String first = service.bookSeats(new BookingRequest(List.of("2-0", "2-1"), "A")).getBookingId();
+        assertTrue(service.cancelBooking(first));
+        String second = service.bookSeats(new BookingRequest(List.of("2-0", "2-1"), "B")).getBookingId();
+
+        CinemaHall hall = service.getCinemaHall();
+        assertEquals(0, hall.releaseRange(2, 0, 2, first), "Et gammelt id frigiver ikke andres sæder");
+        assertEquals(second, hall.getBookingId(2, 0));
+        assertEquals(2, hall.getOccupiedSeats());
+        assertEquals(2, hall.releaseRange(2, 0, 2, second));
+        assertEquals(0, hall.getOccupiedSeats());
+    }
+
+    @Test
+    void testVersionChangesOnlyOnMutation() {
+        long initial = service.getVersion();
+        service.getStatistics();
+        service.getAvailableSeatsForBooking(2);
+        assertEquals(initial, service.getVersion());
+
+        String id = service.bookSeats(new BookingRequest(List.of("1-0", "1-1"), "A")).getBookingId();
+        long afterBooking = service.getVersion();
+        assertTrue(afterBooking > initial);
+
+        service.bookSeats(new BookingRequest(List.of("1-3"), "Isolating"));
+        long afterRejection = service.getVersion();
+        assertTrue(afterRejection > afterBooking, "Rejections change the statistics");
+
+        service.cancelBooking(id);
+        assertTrue(service.getVersion() > afterRejection);
+    }
+
+    @Test
+    void testChangeListenerReportsChangedRows() {
+        service.bookSeats(new BookingRequest(List.of("1-0", "1-1"), "Setup"));
+        List<Integer> changed = new CopyOnWriteArrayList<>();
+        service.getCinemaHall().addChangeListener(changed::add);
+
+        service.bookSeats(new BookingRequest(List.of("2-0", "2-1"), "A"));
+        service.holdSeats(new BookingRequest(List.of("4-0", "4-1"), "B"), 60_000);
+        service.bookSeats(new BookingRequest(List.of("1-3"), "Isolating"));
+
+        assertTrue(changed.contains(2));
+        assertTrue(changed.contains(4));
+        assertFalse(changed.contains(1), "A rejected booking leaves its row untouched");
+        assertTrue(changed.contains(-1), "Rejections change the statistics");
+    }
+
+    @Test
+    void testEveryRejectionIsCountedByReason() {
+        service.bookSeats(new BookingRequest(List.of("1-0", "1-1"), "A"));
+        service.bookSeats(new BookingRequest(List.of("1-1", "1-2"), "Taken"));
+        service.bookSeats(new BookingRequest(List.of("1-3"), "Isolating"));
+        service.bookSeats(new BookingRequest(List.of("2-0", "3-1"), "Rows"));
+        service.bookSeats(new BookingRequest(List.of("2-0", "2-2"), "Gap"));
+        service.confirmHold("missing");
+
+        Map<RejectReason, Long> rejections = service.getMetrics().getRejections();
+        assertEquals(1, rejections.get(RejectReason.SEAT_UNAVAILABLE));
+        assertEquals(1, rejections.get(RejectReason.FRAGMENTATION_PREVENTION));
+        assertEquals(1, rejections.get(RejectReason.DIFFERENT_ROWS));
+        assertEquals(1, rejections.get(RejectReason.NOT_CONTIGUOUS));
+        assertEquals(1, rejections.get(RejectReason.HOLD_NOT_FOUND));
+        assertEquals(5, service.getStatistics().get("rejectedBookings"));
+        assertEquals(1, service.getMetrics().getAccepted());
+        assertEquals(2, service.getMetrics().getCriticalSection().getCount(),
+                "Both bookings that reached validation are timed");
+    }
+
+    @Test
+    void testSeatCodesAreEquivalentToSeatIds() {
+        CinemaHall hall = service.getCinemaHall();
+        assertEquals(2 * 8 + 3, hall.parseSeatId("2-3"));
+        assertEquals(-1, hall.parseSeatId("9-0"));
+        assertThrows(NumberFormatException.class, () -> hall.parseSeatId("2x3"));
+
+        BookingResult result = service.bookSeats(new BookingRequest(new int[] {hall.seatCode(2, 1), hall.seatCode(2, 0)}, "Codes"));
+        assertTrue(result.isSuccess());
+        assertTrue(hall.isOccupied(2, 0));
+        assertTrue(hall.isOccupied(2, 1));
+
+        assertEquals(RejectReason.FRAGMENTATION_PREVENTION,
+                service.bookSeats(new BookingRequest(new int[] {hall.seatCode(2, 3)}, "Codes")).getReason());
+        assertEquals(RejectReason.DIFFERENT_ROWS,
+                service.bookSeats(new BookingRequest(new int[] {hall.seatCode(3, 7), hall.seatCode(4, 0)}, "Codes")).getReason());
+        assertEquals(RejectReason.SEAT_UNAVAILABLE,
+                service.bookSeats(new BookingRequest(new int[] {hall.getTotalSeats()}, "Codes")).getReason());
+
+        List<String> expected = service.getAvailableSeatsForBooking(3);
+        List<String> fromCodes = new ArrayList<>();
+        for (int code : service.getAvailableSeatCodes(3)) {
+            fromCodes.add(hall.seatId(code));
+        }
+        assertEquals(expected, fromCodes);
+    }
+
+    @Test
+    void testResultsBuildTheirMessagesOnDemand() {
+        BookingResult first = service.bookSeats(new BookingRequest(List.of("1-0", "2-0"), "A"));
+        BookingResult second = service.bookSeats(new BookingRequest(List.of("3-0", "4-0"), "B"));
+        assertSame(first, second, "Rejections without details share one instance");
+        assertEquals(RejectReason.DIFFERENT_ROWS.getMessage(), first.getMessage());
+
+        BookingResult booked = service.bookSeats(new BookingRequest(List.of("0-0", "0-1"), "C"));
+        assertEquals("Booking gennemført! 2 plads(er) reserveret", booked.getMessage());
+        assertTrue(booked.hasFragmentation());
+        assertEquals(2, booked.getBlock().getLength());
+
+        BookingResult taken = service.bookSeats(new BookingRequest(List.of("0-1", "0-2"), "D"));
+        assertEquals("0-1", taken.getUnavailableSeat());
+        assertEquals("Plads 0-1 er ikke tilgængelig", taken.getMessage());
+
+        BookingResult isolating = service.bookSeats(new BookingRequest(List.of("0-3", "0-4"), "E"));
+        assertEquals(List.of("0-2"), isolating.getIsolatedSeats());
+        assertTrue(isolating.getMessage().contains("1 isoleret plads (0-2)"));
+        assertFalse(isolating.getSuggestions().isEmpty());
+    }
+
+    @Test
+    void testAllocateBestPrefersTheCentre() {
+        BookingResult result = service.allocateBest(4, BookingService.NO_ROW_PREFERENCE);
+
+        assertTrue(result.isSuccess());
+        assertEquals(2, result.getBlock().getRow());
+        assertEquals(2, result.getBlock().getStart());
+        assertEquals(4, result.getBlock().getLength());
+        assertTrue(service.getCinemaHall().isOccupied(2, 2));
+
+        BookingResult front = service.allocateBest(2, 0);
+        assertEquals(0, front.getBlock().getRow());
+    }
+
+    @Test
+    void testAllocateBestNeverIsolatesSeats() {
+        Random random = new Random(7);
+        int booked = 0;
+        while (true) {
+            BookingResult result = service.allocateBest(2 + random.nextInt(3), BookingService.NO_ROW_PREFERENCE);
+            if (!result.isSuccess()) {
+                assertEquals(RejectReason.NO_SEATS_AVAILABLE, result.getReason());
+                break;
+            }
+            booked += result.getBlock().getLength();
+            if (service.getCinemaHall().getFreeSeats() > 4) {
+                assertEquals(0, service.getCinemaHall().getIsolatedSeats(),
+                        "Auto-seating must not leave single seats behind");
+            }
+        }
+        assertEquals(booked, service.getCinemaHall().getOccupiedSeats());
+        assertTrue(booked >= 30, "Most of the hall should be sold, got " + booked);
+    }
+
+    @ParameterizedTest
+    @EnumSource(ConcurrencyMode.class)
+    void testConcurrentAllocateBestNeverDoubleBooks(ConcurrencyMode mode) throws Exception {
+        BookingService shared = new BookingService(6, 20, mode);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        AtomicInteger bookedSeats = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < 8; t++) {
+            int partySize = 2 + t % 3;
+            futures.add(pool.submit(() -> {
+                BookingResult result;
+                while ((result = shared.allocateBest(partySize, BookingService.NO_ROW_PREFERENCE)).isSuccess()) {
+                    bookedSeats.addAndGet(result.getBlock().getLength());
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+
+        assertEquals(bookedSeats.get(), shared.getCinemaHall().getOccupiedSeats());
+        assertEquals(0, shared.getMetrics().getRejections().get(RejectReason.SEAT_UNAVAILABLE),
+                "Lost races are retried, not reported");
+    }
+
+    @Test
+    void testSuggestionsSearchOtherRowsWhenTheRowIsFull() {
+        service.bookSeats(new BookingRequest(List.of("2-0", "2-1", "2-2", "2-3"), "A"));
+        service.bookSeats(new BookingRequest(List.of("2-4", "2-5", "2-6", "2-7"), "B"));
+
+        List<SeatBlock> blocks = service.suggestAlternatives(2, 3, 2, 4);
+
+        assertEquals(4, blocks.size());
+        for (SeatBlock block : blocks) {
+            assertNotEquals(2, block.getRow());
+            assertEquals(1, Math.abs(block.getRow() - 2), "Neighbouring rows are closest");
+        }
+        assertEquals(3, blocks.get(0).getStart());
+        assertEquals(1, blocks.get(0).getRow(), "Ties are broken by row");
+    }
+
+    @Test
+    void testSuggestionsAreLegalAndRankedByDistance() {
+        service.bookSeats(new BookingRequest(List.of("0-0", "0-1"), "X"));
+        service.bookSeats(new BookingRequest(List.of("0-6", "0-7"), "Y"));
+
+        BookingResult rejected = service.bookSeats(new BookingRequest(List.of("0-3", "0-4"), "Group"));
+        assertEquals(RejectReason.FRAGMENTATION_PREVENTION, rejected.getReason());
+        assertEquals("Række 1, pladser 3-4", rejected.getSuggestions().get(0));
+
+        List<SeatBlock> blocks = service.suggestAlternatives(0, 3, 2, 10);
+        assertEquals(10, blocks.size());
+        double previous = -1;
+        for (SeatBlock block : blocks) {
+            double distance = 2.0 * block.getRow() + Math.abs(block.getStart() - 3);
+            assertTrue(distance >= previous, "Suggestions must be sorted by distance");
+            previous = distance;
+
+            BookingService copy = new BookingService(5, 8);
+            copy.bookSeats(new BookingRequest(List.of("0-0", "0-1"), "X"));
+            copy.bookSeats(new BookingRequest(List.of("0-6", "0-7"), "Y"));
+            List<String> ids = new ArrayList<>();
+            for (int s = block.getStart(); s < block.getEnd(); s++) {
+                ids.add(block.getRow() + "-" + s);
+            }
+            assertTrue(copy.bookSeats(new BookingRequest(ids, "Z")).isSuccess(), "Suggested " + ids);
+        }
+    }
+
+    @Test
+    void testAvailableSeatsCacheFollowsEveryChange() {
+        Random random = new Random(3);
+        Map<String, SeatBlock> active = new HashMap<>();
+        for (int i = 0; i < 300; i++) {
+            if (!active.isEmpty() && random.nextInt(3) == 0) {
+                String id = new ArrayList<>(active.keySet()).get(random.nextInt(active.size()));
+                assertTrue(service.cancelBooking(id));
+                active.remove(id);
+            } else {
+                int row = random.nextInt(5);
+                int start = random.nextInt(6);
+                List<String> ids = new ArrayList<>();
+                for (int s = start; s < start + 1 + random.nextInt(3); s++) {
+                    ids.add(row + "-" + s);
+                }
+                BookingResult result = service.bookSeats(new BookingRequest(ids, "R"));
+                if (result.isSuccess()) active.put(result.getBookingId(), result.getBlock());
+            }
+
+            BookingService fresh = new BookingService(5, 8);
+            for (SeatBlock block : active.values()) {
+                fresh.getCinemaHall().bookRange(block.getRow(), block.getStart(), block.getEnd(), "fresh");
+            }
+            int partySize = 1 + random.nextInt(4);
+            assertArrayEquals(fresh.getAvailableSeatCodes(partySize), service.getAvailableSeatCodes(partySize),
+                    "Step " + i + ", party of " + partySize);
+        }
+    }
+
+    @Test
+    void testRejectionsDoNotChangeSeatVersion() {
+        service.bookSeats(new BookingRequest(List.of("0-0", "0-1"), "A"));
+        long seatVersion = service.getSeatVersion();
+        long version = service.getVersion();
+
+        int[] codes = service.getAvailableSeatCodes(2);
+        service.bookSeats(new BookingRequest(List.of("0-1"), "B"));
+
+        assertTrue(service.getVersion() > version);
+        assertEquals(seatVersion, service.getSeatVersion());
+        assertSame(codes, service.getAvailableSeatCodes(2), "Et cache-hit deler arrayet uden kopi");
+    }
 }
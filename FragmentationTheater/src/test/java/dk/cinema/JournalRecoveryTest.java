@@ -0,0 +1,123 @@
+package dk.cinema.service;
+
+import dk.cinema.model.BookingRequest;
+import dk.cinema.model.CinemaHall;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JournalRecoveryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testStateIsRebuiltFromJournal() throws Exception {
+        Path file = dir.resolve("show.journal");
+        BookingService service = new BookingService(5, 8);
+        service.openJournal(file);
+
+        String kept = service.bookSeats(new BookingRequest(List.of("0-0", "0-1"), "A")).getBookingId();
+        String cancelled = service.bookSeats(new BookingRequest(List.of("2-3", "2-4"), "B")).getBookingId();
+        service.cancelBooking(cancelled);
+        service.closeJournal();
+
+        BookingService recovered = new BookingService(5, 8);
+        recovered.openJournal(file);
+        CinemaHall hall = recovered.getCinemaHall();
+        assertEquals(kept, hall.getBookingId(0, 1));
+        assertFalse(hall.isOccupied(2, 3));
+        assertEquals(2, hall.getOccupiedSeats());
+        assertTrue(recovered.cancelBooking(kept));
+        recovered.closeJournal();
+    }
+
+    @Test
+    void testResetAndTornTailAreHandled() throws Exception {
+        Path file = dir.resolve("show.journal");
+        BookingService service = new BookingService(5, 8);
+        service.openJournal(file);
+        service.bookSeats(new BookingRequest(List.of("1-0"), "A"));
+        service.reset();
+        service.bookSeats(new BookingRequest(List.of("3-0", "3-1", "3-2"), "B"));
+        service.closeJournal();
+
+        long validLength = Files.size(file);
+        Files.write(file, new byte[] {1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+
+        BookingService recovered = new BookingService(5, 8);
+        recovered.openJournal(file);
+        assertFalse(recovered.getCinemaHall().isOccupied(1, 0));
+        assertTrue(recovered.getCinemaHall().isOccupied(3, 2));
+        assertEquals(1, recovered.getStatistics().get("totalBookings"));
+        assertEquals(validLength, Files.size(file));
+
+        recovered.bookSeats(new BookingRequest(List.of("4-0", "4-1"), "C"));
+        recovered.getJournal().sync();
+        assertEquals(Files.size(file), recovered.getJournal().position());
+        recovered.closeJournal();
+    }
+
+    @Test
+    void testSnapshotPlusJournalTail() throws Exception {
+        Path file = dir.resolve("show.journal");
+        Path snapshotFile = dir.resolve("show.snapshot");
+        BookingService service = new BookingService(5, 70);
+        service.openJournal(file, snapshotFile);
+
+        String early = service.bookSeats(new BookingRequest(List.of("0-62", "0-63", "0-64"), "A")).getBookingId();
+        String cancelled = service.bookSeats(new BookingRequest(List.of("1-0", "1-1"), "B")).getBookingId();
+        service.writeSnapshot(snapshotFile);
+        service.cancelBooking(cancelled);
+        String late = service.bookSeats(new BookingRequest(List.of("4-3", "4-4"), "C")).getBookingId();
+        service.closeJournal();
+
+        BookingService recovered = new BookingService(5, 70);
+        recovered.openJournal(file, snapshotFile);
+        CinemaHall hall = recovered.getCinemaHall();
+        assertEquals(early, hall.getBookingId(0, 64));
+        assertFalse(hall.isOccupied(1, 0));
+        assertEquals(late, hall.getBookingId(4, 4));
+        assertEquals(5, hall.getOccupiedSeats());
+        assertEquals(service.getCinemaHall().getIsolatedSeats(), hall.getIsolatedSeats());
+        assertEquals(1, recovered.getStatistics().get("cancelledBookings"));
+        recovered.closeJournal();
+
+        BookingService resized = new BookingService(6, 70);
+        resized.openJournal(file, snapshotFile);
+        assertEquals(late, resized.getCinemaHall().getBookingId(4, 3));
+        resized.closeJournal();
+    }
+
+    @Test
+    void testFailedJournalLeavesSeatsUntouched() throws Exception {
+        Path full = Path.of("/dev/full");
+        Assumptions.assumeTrue(Files.isWritable(full), "Kræver /dev/full");
+
+        BookingService service = new BookingService(5, 8);
+        service.openJournal(full);
+        String booked = service.bookSeats(new BookingRequest(List.of("0-0", "0-1"), "A")).getBookingId();
+        String holdId = service.holdSeats(new BookingRequest(List.of("2-0", "2-1"), "H"), 60_000).getHoldId();
+        assertThrows(IOException.class, () -> service.getJournal().sync(), "Flusheren fejler på en fuld disk");
+
+        CinemaHall hall = service.getCinemaHall();
+        assertEquals(RejectReason.JOURNAL_UNAVAILABLE,
+                service.bookSeats(new BookingRequest(List.of("1-0", "1-1"), "B")).getReason());
+        assertFalse(hall.isOccupied(1, 0));
+        assertEquals(RejectReason.JOURNAL_UNAVAILABLE, service.confirmHold(holdId).getReason());
+        assertTrue(hall.isHeld(2, 0));
+
+        assertThrows(UncheckedIOException.class, () -> service.cancelBooking(booked));
+        assertEquals(booked, hall.getBookingId(0, 0));
+        assertEquals(4, hall.getOccupiedSeats());
+        assertThrows(IOException.class, service::closeJournal);
+    }
+}
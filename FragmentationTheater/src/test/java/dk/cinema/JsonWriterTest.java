@@ -0,0 +1,47 @@
+package dk.cinema.service;
+
+import dk.cinema.controller.JsonWriter;
+import org.json.JSONObject;
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonWriterTest {
+
+    @Test
+    void testNestedValuesRoundTrip() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("success", true);
+        result.put("message", "Række \"3\"\næøå 🎬");
+        result.put("fragmentation", 12.5);
+        result.put("count", 7);
+        result.put("suggestions", List.of("Række 1, pladser 0-1", "Række 2, pladser 3-4"));
+        result.put("missing", null);
+
+        JsonWriter json = JsonWriter.get();
+        json.beginObject().name("result").value(result).name("empty").beginArray().endArray().endObject();
+
+        JSONObject parsed = new JSONObject(json.toString());
+        JSONObject inner = parsed.getJSONObject("result");
+        assertTrue(inner.getBoolean("success"));
+        assertEquals(result.get("message"), inner.getString("message"));
+        assertEquals(12.5, inner.getDouble("fragmentation"));
+        assertEquals(7, inner.getInt("count"));
+        assertEquals("Række 2, pladser 3-4", inner.getJSONArray("suggestions").getString(1));
+        assertTrue(inner.isNull("missing"));
+        assertEquals(0, parsed.getJSONArray("empty").length());
+    }
+
+    @Test
+    void testWriterIsReusedAndReset() {
+        JsonWriter first = JsonWriter.get();
+        first.beginArray().value(-42L).value(Long.MIN_VALUE).value(0.0).endArray();
+        assertEquals("[-42,-9223372036854775808,0]", first.toString());
+
+        JsonWriter second = JsonWriter.get();
+        assertSame(first, second);
+        assertEquals(0, second.size());
+    }
+}
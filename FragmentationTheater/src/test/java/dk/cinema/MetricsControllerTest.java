@@ -0,0 +1,147 @@
+package dk.cinema.service;
+
+import com.sun.net.httpserver.HttpServer;
+import dk.cinema.controller.BookingController;
+import dk.cinema.controller.HttpMetrics;
+import dk.cinema.controller.MetricsController;
+import dk.cinema.controller.ShowController;
+import dk.cinema.metrics.PrometheusWriter;
+import dk.cinema.model.BookingRequest;
+import org.junit.jupiter.api.*;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsControllerTest {
+
+    private static final Pattern SAMPLE = Pattern.compile(
+            "([a-zA-Z_:][a-zA-Z0-9_:]*)(\\{((?:[a-zA-Z_][a-zA-Z0-9_]*=\"(?:[^\"\\\\\\n]|\\\\[\\\\\"n])*\",?)*)\\})? (\\S+)");
+
+    ShowRegistry registry;
+    HttpServer server;
+    HttpClient client;
+    String base;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        registry = new ShowRegistry();
+        registry.createShow("premiere", "Premiere", 5, 8);
+        HttpMetrics httpMetrics = new HttpMetrics();
+        BookingController controller = new BookingController(registry.getService("premiere"));
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        httpMetrics.instrument(server.createContext("/api/cinema", controller::handleCinemaState), "cinema");
+        httpMetrics.instrument(server.createContext("/api/shows",
+                new ShowController(registry, null, null)::handle), ShowController::endpointOf);
+        server.createContext("/api/metrics", new MetricsController(registry, httpMetrics)::handle);
+        server.start();
+        client = HttpClient.newHttpClient();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void testScrapeIsValidExpositionFormat() throws Exception {
+        registry.getService("premiere").bookSeats(new BookingRequest(List.of("0-0", "0-1"), "Alice"));
+        registry.getService("premiere").bookSeats(new BookingRequest(List.of("0-0"), "Bob"));
+        send("GET", "/api/cinema");
+        send("BREW", "/api/cinema");
+        send("GET", "/api/shows/premiere/stats");
+        send("GET", "/api/shows/premiere/noget-tilfældigt");
+
+        HttpResponse<String> response = send("GET", "/api/metrics");
+        assertEquals(200, response.statusCode());
+        assertEquals(PrometheusWriter.CONTENT_TYPE, response.headers().firstValue("Content-Type").orElseThrow());
+        String body = response.body();
+        assertTrue(body.endsWith("\n"));
+
+        Map<String, String> types = new HashMap<>();
+        Map<String, Double> samples = new LinkedHashMap<>();
+        for (String line : body.split("\n")) {
+            if (line.startsWith("# HELP ")) continue;
+            if (line.startsWith("# TYPE ")) {
+                String[] parts = line.split(" ");
+                assertEquals(4, parts.length, line);
+                assertNull(types.put(parts[2], parts[3]), "Familien skrives én gang: " + line);
+                continue;
+            }
+            Matcher matcher = SAMPLE.matcher(line);
+            assertTrue(matcher.matches(), "Ugyldig linje: " + line);
+            String family = matcher.group(1).replaceAll("_(bucket|sum|count)$", "");
+            assertTrue(types.containsKey(family) || types.containsKey(matcher.group(1)), "Mangler TYPE: " + line);
+            assertNull(samples.put(matcher.group(1) + "{" + Objects.toString(matcher.group(3), "") + "}",
+                    parse(matcher.group(4))), "Dobbelt tidsserie: " + line);
+        }
+
+        assertEquals(1.0, samples.get(
+                "cinema_http_requests_total{endpoint=\"cinema\",method=\"GET\",status=\"200\"}"));
+        assertEquals(1.0, samples.get(
+                "cinema_http_requests_total{endpoint=\"cinema\",method=\"OTHER\",status=\"200\"}"));
+        assertFalse(body.contains("BREW"), "Ukendte metoder samles under OTHER");
+        assertEquals(1.0, samples.get(
+                "cinema_http_requests_total{endpoint=\"shows/other\",method=\"GET\",status=\"404\"}"));
+        assertEquals(1.0, samples.get("cinema_bookings_rejected_total{show=\"premiere\",reason=\"SEAT_UNAVAILABLE\"}"));
+
+        assertEquals("histogram", types.get("cinema_http_request_duration_seconds"));
+        assertHistogram(samples, "cinema_http_request_duration_seconds", "endpoint=\"cinema\",method=\"GET\"");
+        assertHistogram(samples, "cinema_http_response_size_bytes", "endpoint=\"shows/stats\",method=\"GET\"");
+        assertHistogram(samples, "cinema_booking_critical_section_seconds", "show=\"premiere\"");
+    }
+
+    @Test
+    void testLabelValuesAreEscaped() {
+        assertEquals("show=\"a\\\"b\\\\c\\nd\",reason=\"x\"", PrometheusWriter.labels("show", "a\"b\\c\nd", "reason", "x"));
+        PrometheusWriter out = new PrometheusWriter();
+        out.family("t", "gauge", "Test.").sample("t", PrometheusWriter.labels("show", "a\"b\\c\nd"), 1.5);
+        String sample = out.toString().split("\n")[2];
+        assertTrue(SAMPLE.matcher(sample).matches(), sample);
+    }
+
+    /**
+     * Bøtterne er kumulative med stigende grænser og slutter med +Inf lig _count.
+     */
+    private static void assertHistogram(Map<String, Double> samples, String name, String labels) {
+        double previousBound = Double.NEGATIVE_INFINITY;
+        double previousCount = 0;
+        int buckets = 0;
+        for (Map.Entry<String, Double> sample : samples.entrySet()) {
+            String prefix = name + "_bucket{" + labels + ",le=\"";
+            if (!sample.getKey().startsWith(prefix)) continue;
+            String le = sample.getKey().substring(prefix.length(), sample.getKey().length() - 2);
+            double bound = parse(le);
+            assertTrue(bound > previousBound, "Grænserne stiger: " + sample.getKey());
+            assertTrue(sample.getValue() >= previousCount, "Bøtterne er kumulative: " + sample.getKey());
+            previousBound = bound;
+            previousCount = sample.getValue();
+            buckets++;
+        }
+        assertTrue(buckets > 1, name + "{" + labels + "} har bøtter");
+        assertEquals(Double.POSITIVE_INFINITY, previousBound, "Sidste bøtte er +Inf");
+        assertEquals(previousCount, samples.get(name + "_count{" + labels + "}"));
+        assertTrue(previousCount >= 1);
+        assertNotNull(samples.get(name + "_sum{" + labels + "}"));
+    }
+
+    private static double parse(String value) {
+        if (value.equals("+Inf")) return Double.POSITIVE_INFINITY;
+        if (value.equals("-Inf")) return Double.NEGATIVE_INFINITY;
+        return Double.parseDouble(value);
+    }
+
+    private HttpResponse<String> send(String method, String path) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(base + path))
+                .method(method, HttpRequest.BodyPublishers.noBody()).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
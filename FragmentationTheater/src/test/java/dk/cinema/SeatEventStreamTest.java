@@ -0,0 +1,204 @@
+package dk.cinema.service;
+
+import com.sun.net.httpserver.HttpServer;
+import dk.cinema.controller.SeatEventStream;
+import dk.cinema.model.BookingRequest;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SeatEventStreamTest {
+
+    BookingService service;
+    ScheduledExecutorService scheduler;
+    ExecutorService pushers;
+    SeatEventStream stream;
+    HttpServer server;
+    List<InputStream> connections = new ArrayList<>();
+
+    void start(BookingService bookingService, Executor pusherExecutor) throws IOException {
+        service = bookingService;
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        stream = new SeatEventStream(service, scheduler, pusherExecutor);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/events", stream::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (InputStream connection : connections) {
+            connection.close();
+        }
+        if (server != null) server.stop(0);
+        if (scheduler != null) scheduler.shutdownNow();
+        if (pushers != null) pushers.shutdownNow();
+    }
+
+    @Test
+    void testFirstEventsAreFullResync() throws Exception {
+        pushers = Executors.newSingleThreadExecutor();
+        start(new BookingService(5, 8), pushers);
+        String booked = service.bookSeats(new BookingRequest(List.of("1-0", "1-1"), "Alice")).getBookingId();
+        BookingResult hold = service.holdSeats(new BookingRequest(List.of("3-3", "3-4"), "Bob"), 60_000);
+        assertNotNull(booked);
+        assertTrue(hold.isSuccess());
+
+        BufferedReader events = connect("?partySize=2");
+
+        JSONObject seats = expect(events, "seats");
+        Map<String, String> states = states(seats);
+        assertEquals(40, states.size(), "Første hændelse har alle sæder");
+        assertEquals("booked", states.get("1-0"));
+        assertEquals("held", states.get("3-3"));
+        assertEquals("free", states.get("0-0"));
+        assertEquals(4, expect(events, "stats").getInt("occupiedSeats"));
+
+        JSONObject available = expect(events, "available");
+        assertEquals(2, available.getInt("partySize"));
+        assertEquals(new TreeSet<>(service.getAvailableSeatsForBooking(2)), ids(available.getJSONArray("availableSeats")));
+    }
+
+    @Test
+    void testChangesAreCoalescedToLatestState() throws Exception {
+        BlockingQueue<Runnable> queued = new LinkedBlockingQueue<>();
+        start(new BookingService(5, 8), queued::add);
+        BufferedReader events = connect("?partySize=3");
+        runAll(queued);
+        expect(events, "seats");
+        expect(events, "stats");
+        expect(events, "available");
+
+        assertTrue(service.bookSeats(new BookingRequest(List.of("0-0", "0-1"), "Kept")).isSuccess());
+        String cancelled = service.bookSeats(new BookingRequest(List.of("2-3", "2-4"), "Gone")).getBookingId();
+        assertTrue(service.cancelBooking(cancelled));
+        assertTrue(service.bookSeats(new BookingRequest(List.of("4-6", "4-7"), "Kept")).isSuccess());
+
+        // Alle ændringer skal være fordelt til abonnenten, før den får lov at skrive.
+        Runnable flush = queued.poll(5, TimeUnit.SECONDS);
+        assertNotNull(flush);
+        Thread.sleep(300);
+        flush.run();
+        runAll(queued);
+
+        JSONObject seats = expect(events, "seats");
+        assertEquals(Map.of("0-0", "booked", "0-1", "booked", "4-6", "booked", "4-7", "booked"), states(seats),
+                "Et sæde der blev booket og frigivet inden for vinduet, sendes ikke");
+        assertEquals(4, expect(events, "stats").getInt("occupiedSeats"));
+        JSONObject available = expect(events, "available");
+        assertEquals(new TreeSet<>(service.getAvailableSeatsForBooking(3)), ids(available.getJSONArray("availableSeats")));
+    }
+
+    @Test
+    void testInvalidPartySizeIsRejected() throws Exception {
+        pushers = Executors.newSingleThreadExecutor();
+        start(new BookingService(5, 8), pushers);
+        HttpResponse<String> response = HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder(uri("?partySize=9")).build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(400, response.statusCode());
+        assertEquals(0, stream.getSubscriberCount());
+    }
+
+    @Test
+    void testStalledClientIsDropped() throws Exception {
+        pushers = Executors.newSingleThreadExecutor();
+        // Første hændelse fylder over 10 MB, mere end socketbufferne kan rumme.
+        start(new BookingService(600, 600), pushers);
+
+        try (Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(4096);
+            socket.connect(server.getAddress());
+            socket.getOutputStream().write(("GET /api/events HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            socket.getOutputStream().flush();
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (stream.getSubscriberCount() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, stream.getSubscriberCount());
+
+            deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+            while (stream.getSubscriberCount() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(0, stream.getSubscriberCount(), "Watchdoggen lukker en klient der ikke læser");
+            assertTrue(pushers.submit(() -> true).get(5, TimeUnit.SECONDS), "Skrivetråden er fri igen");
+        }
+    }
+
+    private BufferedReader connect(String query) throws Exception {
+        int before = stream.getSubscriberCount();
+        HttpResponse<InputStream> response = HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder(uri(query)).build(), HttpResponse.BodyHandlers.ofInputStream());
+        assertEquals(200, response.statusCode());
+        connections.add(response.body());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (stream.getSubscriberCount() == before && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        return new BufferedReader(new InputStreamReader(response.body(), StandardCharsets.UTF_8));
+    }
+
+    private URI uri(String query) {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/api/events" + query);
+    }
+
+    /**
+     * Læser til næste navngivne hændelse og kræver at den hedder event. Retry og ping springes over.
+     */
+    private static JSONObject expect(BufferedReader events, String event) throws IOException {
+        String name = null;
+        String line;
+        while ((line = events.readLine()) != null) {
+            if (line.startsWith("event: ")) {
+                name = line.substring("event: ".length());
+            } else if (line.startsWith("data: ") && name != null) {
+                assertEquals(event, name);
+                return new JSONObject(line.substring("data: ".length()));
+            }
+        }
+        throw new AssertionError("Strømmen sluttede før " + event);
+    }
+
+    private static Map<String, String> states(JSONObject seats) {
+        Map<String, String> states = new HashMap<>();
+        JSONArray array = seats.getJSONArray("seats");
+        for (int i = 0; i < array.length(); i++) {
+            states.put(array.getJSONObject(i).getString("id"), array.getJSONObject(i).getString("state"));
+        }
+        return states;
+    }
+
+    private static Set<String> ids(JSONArray array) {
+        Set<String> ids = new TreeSet<>();
+        for (int i = 0; i < array.length(); i++) {
+            ids.add(array.getString(i));
+        }
+        return ids;
+    }
+
+    private static void runAll(BlockingQueue<Runnable> queued) {
+        Runnable task;
+        while ((task = queued.poll()) != null) {
+            task.run();
+        }
+    }
+}
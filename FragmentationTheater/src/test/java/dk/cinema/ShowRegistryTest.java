@@ -0,0 +1,105 @@
+package dk.cinema.service;
+
+import dk.cinema.model.BookingRequest;
+import dk.cinema.model.VenueLayout;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShowRegistryTest {
+
+    ShowRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new ShowRegistry();
+        registry.createShow("premiere", "Premiere", 5, 8);
+        registry.createShow("matinee", "Matiné", 3, 6);
+    }
+
+    @Test
+    void testShowsHaveSeparateHalls() {
+        BookingResult result = registry.getService("premiere")
+                .bookSeats(new BookingRequest(List.of("0-0", "0-1"), "Alice"));
+
+        assertTrue(result.isSuccess());
+        assertTrue(registry.getService("premiere").getCinemaHall().isOccupied(0, 0));
+        assertFalse(registry.getService("matinee").getCinemaHall().isOccupied(0, 0));
+        assertEquals(6, registry.getService("matinee").getCinemaHall().getSeatsPerRow());
+    }
+
+    @Test
+    void testDuplicateShowIdRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> registry.createShow("premiere", "Igen", 5, 8));
+    }
+
+    @Test
+    void testShowIdsAreWhitelisted() {
+        for (String id : new String[] {"", "../etc", "a/b", "a\\b", "..", "æble", "a b", "x".repeat(65), null}) {
+            assertThrows(IllegalArgumentException.class, () -> registry.createShow(id, "Ugyldig", 2, 2), "id " + id);
+        }
+        registry.createShow("Aften_2-" + "x".repeat(56), "Gyldig", 2, 2);
+        assertEquals(3, registry.getShows().size());
+    }
+
+    @Test
+    void testNumberOfShowsIsBounded() {
+        for (int i = registry.getShows().size(); i < ShowRegistry.MAX_SHOWS; i++) {
+            registry.createShow("show" + i, "Show " + i, 1, 1);
+        }
+        assertThrows(IllegalArgumentException.class, () -> registry.createShow("en-for-mange", "For mange", 1, 1));
+        assertNull(registry.getShow("en-for-mange"));
+    }
+
+    @Test
+    void testHallSizeIsBounded() {
+        assertThrows(IllegalArgumentException.class, () -> registry.createShow("negativ", "Negativ", -1, 8));
+        assertThrows(IllegalArgumentException.class, () -> registry.createShow("stor", "Stor", 100_000, 100_000));
+        assertThrows(IllegalArgumentException.class,
+                () -> registry.createShow("overloeb", "Overløb", Integer.MAX_VALUE, Integer.MAX_VALUE));
+        assertNull(registry.getService("stor"));
+    }
+
+    @Test
+    void testShowsAreRestoredAfterRestart(@TempDir Path dir) throws Exception {
+        ShowRegistry first = new ShowRegistry(dir);
+        first.createShow("premiere", "Premiere", 5, 8);
+        first.createShow("arena", "Arena", VenueLayout.parse("section A\nrows 2 3o_3o\nsection B\nrow 2w4o\n"));
+        assertTrue(first.getService("premiere")
+                .bookSeats(new BookingRequest(List.of("0-0", "0-1"), "Alice")).isSuccess());
+        assertTrue(first.getService("arena")
+                .bookSeats(new BookingRequest(List.of("2-0"), "Bob")).isSuccess());
+        first.close();
+
+        ShowRegistry second = new ShowRegistry(dir);
+        second.createShow("premiere", "Premiere", 5, 8);
+        assertEquals(1, second.restoreShows());
+        try {
+            assertEquals(List.of("arena", "premiere"),
+                    second.getShows().stream().map(show -> show.getId()).collect(Collectors.toList()));
+            assertEquals("Arena", second.getShow("arena").getTitle());
+            VenueLayout layout = second.getService("arena").getCinemaHall().getLayout();
+            assertEquals("B 1", layout.getRowLabel(2));
+            assertTrue(layout.isAisle(0, 3));
+            assertTrue(layout.isWheelchair(2, 1));
+            assertTrue(second.getService("arena").getCinemaHall().isOccupied(2, 0));
+            assertTrue(second.getService("premiere").getCinemaHall().isOccupied(0, 1));
+            assertEquals(0, second.restoreShows());
+        } finally {
+            second.close();
+        }
+    }
+
+    @Test
+    void testUnknownShow() {
+        assertNull(registry.getService("missing"));
+        assertEquals(List.of("matinee", "premiere"),
+                registry.getShows().stream().map(show -> show.getId()).collect(Collectors.toList()));
+    }
+}
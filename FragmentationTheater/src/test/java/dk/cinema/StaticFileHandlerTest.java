@@ -0,0 +1,122 @@
+package dk.cinema.service;
+
+import com.sun.net.httpserver.HttpServer;
+import dk.cinema.controller.StaticFileHandler;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StaticFileHandlerTest {
+
+    @TempDir
+    Path dir;
+
+    HttpServer server;
+    HttpClient client;
+    String base;
+
+    void start(boolean watch) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new StaticFileHandler(dir.toString(), watch));
+        server.start();
+        client = HttpClient.newHttpClient();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (server != null) server.stop(0);
+    }
+
+    @Test
+    void testMatchingEtagGives304() throws Exception {
+        Files.writeString(dir.resolve("index.html"), "<h1>Sal</h1>");
+        start(false);
+
+        HttpResponse<byte[]> first = get("/", null, null);
+        assertEquals(200, first.statusCode());
+        assertEquals("<h1>Sal</h1>", new String(first.body(), StandardCharsets.UTF_8));
+        String etag = first.headers().firstValue("ETag").orElseThrow();
+
+        HttpResponse<byte[]> second = get("/index.html", etag, null);
+        assertEquals(304, second.statusCode());
+        assertEquals(0, second.body().length);
+        assertEquals(etag, second.headers().firstValue("ETag").orElseThrow());
+        assertEquals(304, get("/", "\"andet\", W/" + etag, null).statusCode());
+        assertEquals(200, get("/", "\"andet\"", null).statusCode());
+    }
+
+    @Test
+    void testAcceptEncodingSelectsGzip() throws Exception {
+        String text = "body { color: black; }\n".repeat(50);
+        Files.writeString(dir.resolve("style.css"), text);
+        start(false);
+
+        HttpResponse<byte[]> gzip = get("/style.css", null, "br;q=1, gzip;q=0.8");
+        assertEquals(200, gzip.statusCode());
+        assertEquals("gzip", gzip.headers().firstValue("Content-Encoding").orElseThrow());
+        assertEquals("Accept-Encoding", gzip.headers().firstValue("Vary").orElseThrow());
+        assertTrue(gzip.body().length < text.length());
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip.body()))) {
+            assertEquals(text, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
+        for (String acceptEncoding : new String[] {null, "identity", "gzip;q=0"}) {
+            HttpResponse<byte[]> plain = get("/style.css", null, acceptEncoding);
+            assertTrue(plain.headers().firstValue("Content-Encoding").isEmpty(), acceptEncoding);
+            assertEquals("Accept-Encoding", plain.headers().firstValue("Vary").orElseThrow());
+            assertEquals(text, new String(plain.body(), StandardCharsets.UTF_8));
+            assertNotEquals(gzip.headers().firstValue("ETag"), plain.headers().firstValue("ETag"),
+                    "Udgaverne har hver sin ETag");
+        }
+    }
+
+    @Test
+    void testChangedFileIsReloadedWhenWatching() throws Exception {
+        Path file = dir.resolve("app.js");
+        Files.writeString(file, "var version = 1;");
+        start(true);
+        assertEquals("var version = 1;", new String(get("/app.js", null, null).body(), StandardCharsets.UTF_8));
+
+        Files.writeString(file, "var version = 2;");
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        String body;
+        do {
+            Thread.sleep(20);
+            body = new String(get("/app.js", null, null).body(), StandardCharsets.UTF_8);
+        } while (!body.equals("var version = 2;") && System.nanoTime() < deadline);
+        assertEquals("var version = 2;", body);
+    }
+
+    @Test
+    void testCacheIsKeptWithoutWatching() throws Exception {
+        Path file = dir.resolve("app.js");
+        Files.writeString(file, "var version = 1;");
+        start(false);
+        get("/app.js", null, null);
+
+        Files.writeString(file, "var version = 2;");
+        Thread.sleep(100);
+        assertEquals("var version = 1;", new String(get("/app.js", null, null).body(), StandardCharsets.UTF_8));
+    }
+
+    private HttpResponse<byte[]> get(String path, String ifNoneMatch, String acceptEncoding) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(base + path)).GET();
+        if (ifNoneMatch != null) request.header("If-None-Match", ifNoneMatch);
+        if (acceptEncoding != null) request.header("Accept-Encoding", acceptEncoding);
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+}
@@ -0,0 +1,182 @@
+package dk.cinema.service;
+
+import dk.cinema.model.BookingRequest;
+import dk.cinema.model.CinemaHall;
+import dk.cinema.model.SeatBlock;
+import dk.cinema.model.VenueLayout;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VenueLayoutTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testParseSectionsAndSeatKinds() {
+        VenueLayout layout = VenueLayout.parse(
+                "venue Testhal\n" +
+                "section A   # forrest\n" +
+                "row 3o_2w\n" +
+                "section B\n" +
+                "rows 2 x4o\n");
+
+        assertEquals("Testhal", layout.getName());
+        assertEquals(2, layout.getSections().size());
+        assertEquals(3, layout.getRows());
+        assertEquals(6, layout.getWidth());
+        assertEquals(5 + 2 * 4, layout.getTotalSeats());
+        assertFalse(layout.isRectangular());
+
+        assertTrue(layout.isSeat(0, 0));
+        assertTrue(layout.isAisle(0, 3));
+        assertTrue(layout.isWheelchair(0, 5));
+        assertFalse(layout.isSeat(1, 0));
+        assertFalse(layout.isSeat(1, 5), "Pladser efter rækkens slutning er ikke sæder");
+        assertEquals("B 2", layout.getRowLabel(2));
+        assertEquals(1, layout.sectionOf(2).getFirstRow());
+    }
+
+    @Test
+    void testParseErrorsNameTheLine() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> VenueLayout.parse("section A\nrow 3o\nrow 2q\n"));
+        assertTrue(e.getMessage().startsWith("Linje 3:"), e.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> VenueLayout.parse("row 3o\n"));
+        assertThrows(IllegalArgumentException.class, () -> VenueLayout.parse("section A\nrow 3x\n"));
+    }
+
+    @Test
+    void testToTextRoundTrips() {
+        VenueLayout layout = VenueLayout.parse(
+                "venue Testhal\n" +
+                "section A\n" +
+                "row 3o_2w\n" +
+                "row 3o_2w\n" +
+                "section B\n" +
+                "rows 2 x4o\n" +
+                "row 70o\n");
+
+        String text = layout.toText();
+        assertEquals("venue Testhal\nsection A\nrows 2 3o_2w\nsection B\nrows 2 x4o\nrow 70o\n", text);
+        VenueLayout copy = VenueLayout.parse(text);
+        assertEquals(layout.getRows(), copy.getRows());
+        assertEquals(layout.getTotalSeats(), copy.getTotalSeats());
+        for (int row = 0; row < layout.getRows(); row++) {
+            assertEquals(layout.getRowLabel(row), copy.getRowLabel(row));
+            for (int seat = 0; seat < layout.getWidth(); seat++) {
+                assertEquals(layout.isSeat(row, seat), copy.isSeat(row, seat));
+                assertEquals(layout.isAisle(row, seat), copy.isAisle(row, seat));
+                assertEquals(layout.isWheelchair(row, seat), copy.isWheelchair(row, seat));
+            }
+        }
+        assertThrows(IllegalStateException.class, () -> VenueLayout.rectangular(2, 3).toText());
+    }
+
+    @Test
+    void testInlineLayoutsAreLimited() {
+        String large = "section A\nrows 400 200o\n";
+        assertEquals(80_000, VenueLayout.parse(large).getTotalSeats());
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> VenueLayout.parse(large, VenueLayout.MAX_INLINE_POSITIONS));
+        assertTrue(e.getMessage().startsWith("Linje 2:"), e.getMessage());
+        assertThrows(IllegalArgumentException.class,
+                () -> VenueLayout.parse("section A\nrows 2147483647 o\n", VenueLayout.MAX_INLINE_POSITIONS));
+    }
+
+    @Test
+    void testAislesAreRowEdges() {
+        BookingService service = new BookingService(VenueLayout.parse("section A\nrow 3o_3o\nrow 8o\n"),
+                ConcurrencyMode.OPTIMISTIC);
+
+        assertTrue(service.bookSeats(new BookingRequest(List.of("0-0", "0-1", "0-2"), "Venstre")).isSuccess(),
+                "Hele blokken op til gangen efterlader intet isoleret sæde");
+
+        BookingResult result = service.bookSeats(new BookingRequest(List.of("0-5", "0-6"), "Højre"));
+        assertFalse(result.isSuccess());
+        assertEquals(RejectReason.FRAGMENTATION_PREVENTION, result.getReason());
+        assertEquals(List.of("0-4"), result.getIsolatedSeats(), "Sædet mod gangen bliver isoleret");
+
+        assertFalse(service.bookSeats(new BookingRequest(List.of("0-3"), "Gang")).isSuccess(),
+                "Gangen kan ikke bookes");
+    }
+
+    @Test
+    void testSeatsAloneBetweenAislesAreNotFragmentation() {
+        BookingService service = new BookingService(VenueLayout.parse("section A\nrow o_4o_o\n"),
+                ConcurrencyMode.OPTIMISTIC);
+        CinemaHall hall = service.getCinemaHall();
+
+        assertEquals(0, hall.getIsolatedSeats());
+        assertEquals(0.0, service.calculateFragmentation());
+        assertTrue(service.getAvailableSeatsForBooking(4).contains("0-2"));
+        assertTrue(service.bookSeats(new BookingRequest(List.of("0-2", "0-3", "0-4", "0-5"), "Midt")).isSuccess());
+        assertTrue(service.bookSeats(new BookingRequest(List.of("0-0"), "Alene")).isSuccess());
+        assertEquals(0, hall.getIsolatedSeats());
+    }
+
+    @Test
+    void testBlockedSeatsStayUnavailable() throws Exception {
+        VenueLayout layout = VenueLayout.parse("section A\nrow 2o2x4o\nrow 8o\n");
+        Path journal = dir.resolve("show.journal");
+        Path snapshot = dir.resolve("show.snapshot");
+
+        BookingService service = new BookingService(layout, ConcurrencyMode.OPTIMISTIC);
+        service.openJournal(journal, snapshot);
+        CinemaHall hall = service.getCinemaHall();
+        assertEquals(14, hall.getTotalSeats());
+        assertEquals(14, hall.getAllSeats().size());
+        assertEquals(14, hall.getFreeSeats());
+
+        BookingResult blocked = service.bookSeats(new BookingRequest(List.of("0-2"), "Spærret"));
+        assertEquals(RejectReason.SEAT_UNAVAILABLE, blocked.getReason());
+        String kept = service.bookSeats(new BookingRequest(List.of("1-0", "1-1"), "A")).getBookingId();
+        service.writeSnapshot(snapshot);
+        service.closeJournal();
+
+        BookingService recovered = new BookingService(layout, ConcurrencyMode.OPTIMISTIC);
+        recovered.openJournal(journal, snapshot);
+        CinemaHall recoveredHall = recovered.getCinemaHall();
+        assertTrue(recoveredHall.isOccupied(0, 2));
+        assertEquals(kept, recoveredHall.getBookingId(1, 0));
+        assertEquals(12, recoveredHall.getFreeSeats());
+
+        recovered.reset();
+        assertTrue(recoveredHall.isOccupied(0, 3), "Nulstilling frigiver ikke spærrede pladser");
+        assertEquals(14, recoveredHall.getFreeSeats());
+        recovered.closeJournal();
+    }
+
+    @Test
+    void testStadiumSampleLoads() throws Exception {
+        VenueLayout layout = VenueLayout.load(Path.of("venues/arena.txt"));
+        assertTrue(layout.getTotalSeats() >= 100_000, "Arena har " + layout.getTotalSeats() + " sæder");
+
+        BookingService service = new BookingService(layout, ConcurrencyMode.OPTIMISTIC);
+        CinemaHall hall = service.getCinemaHall();
+        assertEquals(layout.getTotalSeats(), hall.getFreeSeats());
+
+        for (int i = 0; i < 50; i++) {
+            BookingResult result = service.allocateBest(4, BookingService.NO_ROW_PREFERENCE);
+            assertTrue(result.isSuccess());
+        }
+        for (int code : service.getAvailableSeatCodes(6)) {
+            assertTrue(hall.isSeat(hall.rowOf(code), hall.numberOf(code)));
+        }
+        assertEquals(200, hall.getOccupiedSeats());
+        assertEquals(0, hall.getIsolatedSeats());
+
+        List<SeatBlock> suggestions = service.suggestAlternatives(0, 100, 3, 3);
+        assertEquals(3, suggestions.size());
+        for (SeatBlock block : suggestions) {
+            for (int s = block.getStart(); s < block.getEnd(); s++) {
+                assertTrue(hall.isSeat(block.getRow(), s));
+            }
+        }
+    }
+}
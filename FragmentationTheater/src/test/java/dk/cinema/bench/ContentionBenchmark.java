@@ -0,0 +1,72 @@
+package dk.cinema.bench;
+
+import dk.cinema.model.BookingRequest;
+import dk.cinema.service.BookingService;
+import dk.cinema.service.ConcurrencyMode;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Måler bookinggennemløb for hver ConcurrencyMode ved stigende antal tråde.
+ * GLOBAL svarer til den tidligere synchronized bookSeats.
+ *
+ * Kør med: java -cp target/classes:target/test-classes dk.cinema.bench.ContentionBenchmark [rækker] [sæder pr. række] [ms pr. måling]
+ */
+public class ContentionBenchmark {
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16};
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int seatsPerRow = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+        long millis = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+
+        System.out.printf("Sal: %d x %d, %d ms pr. måling%n", rows, seatsPerRow, millis);
+        System.out.printf("%-12s %8s %16s%n", "Tilstand", "Tråde", "Forsøg/s");
+
+        for (ConcurrencyMode mode : ConcurrencyMode.values()) {
+            for (int threads : THREAD_COUNTS) {
+                run(mode, threads, rows, seatsPerRow, millis / 4);
+                double throughput = run(mode, threads, rows, seatsPerRow, millis);
+                System.out.printf("%-12s %8d %16.0f%n", mode, threads, throughput);
+            }
+        }
+    }
+
+    /**
+     * Lader trådene booke tilfældige par, indtil tiden er gået. Salen nulstilles når den er
+     * næsten fuld, så målingen ikke ender med kun afvisninger.
+     */
+    private static double run(ConcurrencyMode mode, int threads, int rows, int seatsPerRow, long millis)
+            throws Exception {
+        BookingService service = new BookingService(rows, seatsPerRow, mode);
+        LongAdder attempts = new LongAdder();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            futures.add(pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    int row = random.nextInt(rows);
+                    int seat = random.nextInt(seatsPerRow - 1);
+                    service.bookSeats(new BookingRequest(
+                            List.of(row + "-" + seat, row + "-" + (seat + 1)), "Bench"));
+                    attempts.increment();
+
+                    if (service.getCinemaHall().getFreeSeats() < service.getCinemaHall().getTotalSeats() / 5) {
+                        service.reset();
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+
+        return attempts.sum() * 1000.0 / millis;
+    }
+}
@@ -0,0 +1,426 @@
+package dk.cinema.bench;
+
+import dk.cinema.CinemaBookingApplication;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Belastningstest over HTTP. Starter CinemaBookingApplication på localhost (eller bruger
+ * en kørende server med --url) og opretter en forestilling, som følgende klienter rammer:
+ *
+ * - købere, der alle starter på samme tid som ved salgsstart og booker så hurtigt de kan
+ *   i de første sekunder; derefter tænker de mellem køb og annullerer en gang imellem.
+ *   Gruppestørrelser følger en typisk fordeling, og de fleste vil sidde i de midterste
+ *   rækker og midt på rækken. Ved afvisning forsøges først et af forslagene.
+ * - pollende klienter, der henter salen med If-None-Match og statistikken med et fast
+ *   interval, som en åben bookingside.
+ *
+ * Til sidst udskrives gennemløb og p50/p99/p999 pr. endpoint og afvisningsårsager, delt
+ * på salgsstart og drift.
+ *
+ * Kør med: mvn -q -Pload test-compile exec:java -Dexec.args="--buyers=64 --seconds=30 --executor=single"
+ *
+ * --buyers=64, --pollers=32, --seconds=30, --burst-seconds=5, --rows=40, --seats=60,
+ * --poll-millis=1000, --url=http://host:port. Andre --argumenter gives videre til serveren,
+ * så forskellige serverkonfigurationer kan sammenlignes.
+ */
+public class LoadGenerator {
+    private static final String SHOW = "loadtest";
+    private static final int[] PARTY_SIZES = {1, 2, 3, 4, 5, 6, 8};
+    private static final int[] PARTY_WEIGHTS = {8, 40, 12, 22, 8, 6, 4};
+    private static final double[] PERCENTILES = {0.5, 0.99, 0.999};
+    private static final Pattern SUGGESTION = Pattern.compile("(\\d+)\\D+(\\d+)-\\d+");
+
+    private final HttpClient client;
+    private final String base;
+    private final int rows;
+    private final int seatsPerRow;
+    private final long burstEnd;
+    private final long end;
+    private final long pollMillis;
+    private final List<Recorder> recorders = new CopyOnWriteArrayList<>();
+
+    private LoadGenerator(String url, int rows, int seatsPerRow, long start, long burstMillis, long totalMillis,
+                          long pollMillis, int threads) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newFixedThreadPool(Math.max(2, threads / 4), daemonThreads()))
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        this.base = url + "/api/shows/" + SHOW;
+        this.rows = rows;
+        this.seatsPerRow = seatsPerRow;
+        this.burstEnd = start + TimeUnit.MILLISECONDS.toNanos(burstMillis);
+        this.end = start + TimeUnit.MILLISECONDS.toNanos(totalMillis);
+        this.pollMillis = pollMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        List<String> serverArgs = new ArrayList<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String name = arg.startsWith("--") && eq > 0 ? arg.substring(2, eq) : "";
+            switch (name) {
+                case "buyers": case "pollers": case "seconds": case "burst-seconds":
+                case "rows": case "seats": case "poll-millis": case "url":
+                    options.put(name, arg.substring(eq + 1));
+                    break;
+                default:
+                    serverArgs.add(arg);
+            }
+        }
+        int buyers = Integer.parseInt(options.getOrDefault("buyers", "64"));
+        int pollers = Integer.parseInt(options.getOrDefault("pollers", "32"));
+        long seconds = Long.parseLong(options.getOrDefault("seconds", "30"));
+        long burstSeconds = Math.min(seconds, Long.parseLong(options.getOrDefault("burst-seconds", "5")));
+        int rows = Integer.parseInt(options.getOrDefault("rows", "40"));
+        int seatsPerRow = Integer.parseInt(options.getOrDefault("seats", "60"));
+        long pollMillis = Long.parseLong(options.getOrDefault("poll-millis", "1000"));
+
+        String url = options.get("url");
+        if (url == null) {
+            url = startServer(serverArgs);
+        } else if (!serverArgs.isEmpty()) {
+            throw new IllegalArgumentException("Serverargumenter kan ikke bruges sammen med --url: " + serverArgs);
+        }
+
+        System.out.printf("Server: %s, sal %d x %d, %d købere, %d pollere, %d s (heraf %d s salgsstart)%n",
+                url, rows, seatsPerRow, buyers, pollers, seconds, burstSeconds);
+
+        CountDownLatch ready = new CountDownLatch(1);
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+        LoadGenerator generator = new LoadGenerator(url, rows, seatsPerRow, start,
+                burstSeconds * 1000, seconds * 1000, pollMillis, buyers + pollers);
+        generator.createShow();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < buyers; i++) {
+            threads.add(new Thread(() -> generator.runBuyer(ready, start), "buyer-" + i));
+        }
+        for (int i = 0; i < pollers; i++) {
+            threads.add(new Thread(() -> generator.runPoller(ready, start), "poller-" + i));
+        }
+        threads.forEach(Thread::start);
+        ready.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        generator.report(TimeUnit.NANOSECONDS.toMillis(generator.burstEnd - start) / 1000.0,
+                TimeUnit.NANOSECONDS.toMillis(generator.end - generator.burstEnd) / 1000.0);
+        System.exit(0);
+    }
+
+    private static String startServer(List<String> serverArgs) throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        List<String> args = new ArrayList<>(serverArgs);
+        args.add("--port=" + port);
+        if (serverArgs.stream().noneMatch(arg -> arg.startsWith("--data-dir"))) {
+            args.add("--data-dir=" + Files.createTempDirectory("cinema-load"));
+        }
+        if (serverArgs.stream().noneMatch(arg -> arg.startsWith("--watch-static"))) {
+            args.add("--watch-static=false");
+        }
+        CinemaBookingApplication.main(args.toArray(new String[0]));
+        return "http://localhost:" + port;
+    }
+
+    private void createShow() throws IOException, InterruptedException {
+        String body = new JSONObject().put("id", SHOW).put("title", "Belastningstest")
+                .put("rows", rows).put("seatsPerRow", seatsPerRow).toString();
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(base.substring(0, base.lastIndexOf('/'))))
+                .POST(HttpRequest.BodyPublishers.ofString(body)).build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 201) {
+            throw new IllegalStateException("Kunne ikke oprette forestillingen: " + response.body());
+        }
+    }
+
+    private void runBuyer(CountDownLatch ready, long start) {
+        Recorder recorder = newRecorder();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<String> myBookings = new ArrayList<>();
+        awaitStart(ready, start);
+
+        while (System.nanoTime() < end) {
+            boolean burst = System.nanoTime() < burstEnd;
+            if (!burst) {
+                sleep(100 + random.nextInt(400));
+                if (System.nanoTime() >= end) break;
+            }
+
+            if (!burst && !myBookings.isEmpty() && random.nextInt(4) == 0) {
+                String id = myBookings.remove(random.nextInt(myBookings.size()));
+                send(recorder, "DELETE book", HttpRequest.newBuilder(URI.create(base + "/book/" + id)).DELETE());
+                continue;
+            }
+
+            int partySize = pick(random, PARTY_SIZES, PARTY_WEIGHTS);
+            if (burst && random.nextInt(5) == 0) {
+                send(recorder, "GET available-seats",
+                        HttpRequest.newBuilder(URI.create(base + "/available-seats?partySize=" + partySize)).GET());
+            }
+
+            List<String> seatIds = preferredSeats(random, partySize);
+            for (int attempt = 0; attempt < 2 && seatIds != null; attempt++) {
+                JSONObject result = book(recorder, seatIds);
+                if (result == null) break;
+                if (result.optBoolean("success")) {
+                    myBookings.add(result.getString("bookingId"));
+                    break;
+                }
+                seatIds = firstSuggestion(result, partySize);
+            }
+        }
+    }
+
+    private void runPoller(CountDownLatch ready, long start) {
+        Recorder recorder = newRecorder();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        awaitStart(ready, start);
+        sleep(random.nextLong(pollMillis));
+
+        String etag = null;
+        while (System.nanoTime() < end) {
+            HttpRequest.Builder cinema = HttpRequest.newBuilder(URI.create(base + "/cinema")).GET();
+            if (etag != null) cinema.header("If-None-Match", etag);
+            HttpResponse<String> response = send(recorder, "GET cinema", cinema);
+            if (response != null && response.statusCode() == 200) {
+                etag = response.headers().firstValue("ETag").orElse(null);
+            }
+            send(recorder, "GET stats", HttpRequest.newBuilder(URI.create(base + "/stats")).GET());
+            sleep(pollMillis);
+        }
+    }
+
+    /**
+     * Vælger sæder som en rigtig kunde: helst en af de midterste rækker og midt på rækken.
+     */
+    private List<String> preferredSeats(ThreadLocalRandom random, int partySize) {
+        if (partySize > seatsPerRow) return null;
+        int row;
+        if (random.nextInt(10) < 7) {
+            int popular = Math.max(1, rows / 3);
+            row = rows / 3 + random.nextInt(popular);
+        } else {
+            row = random.nextInt(rows);
+        }
+        int center = (seatsPerRow - partySize) / 2;
+        int start = (int) Math.round(center + random.nextGaussian() * seatsPerRow / 6.0);
+        start = Math.max(0, Math.min(seatsPerRow - partySize, start));
+
+        List<String> seatIds = new ArrayList<>(partySize);
+        for (int s = start; s < start + partySize; s++) {
+            seatIds.add(Math.min(row, rows - 1) + "-" + s);
+        }
+        return seatIds;
+    }
+
+    /**
+     * Forslag har formen "Række 4, pladser 7-8" med 1-baserede numre.
+     */
+    private static List<String> firstSuggestion(JSONObject result, int partySize) {
+        JSONArray suggestions = result.optJSONArray("suggestions");
+        if (suggestions == null || suggestions.isEmpty()) return null;
+
+        Matcher matcher = SUGGESTION.matcher(suggestions.getString(0));
+        if (!matcher.find()) return null;
+        int row = Integer.parseInt(matcher.group(1)) - 1;
+        int seat = Integer.parseInt(matcher.group(2)) - 1;
+        List<String> seatIds = new ArrayList<>(partySize);
+        for (int s = seat; s < seat + partySize; s++) {
+            seatIds.add(row + "-" + s);
+        }
+        return seatIds;
+    }
+
+    private JSONObject book(Recorder recorder, List<String> seatIds) {
+        String body = new JSONObject().put("seatIds", seatIds).put("customerName", "Load").toString();
+        boolean burst = System.nanoTime() < burstEnd;
+        HttpResponse<String> response = send(recorder, "POST book", HttpRequest.newBuilder(URI.create(base + "/book"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body)));
+        if (response == null) return null;
+        if (response.statusCode() != 200) {
+            recorder.outcome(burst, "HTTP_" + response.statusCode());
+            return null;
+        }
+        JSONObject result = new JSONObject(response.body());
+        recorder.outcome(burst, result.optBoolean("success") ? "OK" : result.optString("reason", "UNKNOWN"));
+        return result;
+    }
+
+    private HttpResponse<String> send(Recorder recorder, String endpoint, HttpRequest.Builder request) {
+        long started = System.nanoTime();
+        try {
+            HttpResponse<String> response = client.send(request.timeout(Duration.ofSeconds(30)).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            recorder.latency(started < burstEnd, endpoint, System.nanoTime() - started);
+            return response;
+        } catch (IOException e) {
+            recorder.latency(started < burstEnd, endpoint, System.nanoTime() - started);
+            recorder.error(started < burstEnd, endpoint);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private Recorder newRecorder() {
+        Recorder recorder = new Recorder();
+        recorders.add(recorder);
+        return recorder;
+    }
+
+    private void report(double burstSeconds, double steadySeconds) {
+        for (boolean burst : new boolean[] {true, false}) {
+            double seconds = burst ? burstSeconds : steadySeconds;
+            if (seconds <= 0) continue;
+
+            System.out.printf("%n%s (%.1f s)%n", burst ? "Salgsstart" : "Drift", seconds);
+            System.out.printf("%-22s %9s %10s %10s %10s %10s %8s%n",
+                    "Endpoint", "Antal", "Req/s", "p50 ms", "p99 ms", "p999 ms", "Fejl");
+
+            Map<String, LongList> latencies = new TreeMap<>();
+            Map<String, Long> errors = new HashMap<>();
+            Map<String, Long> outcomes = new TreeMap<>();
+            for (Recorder recorder : recorders) {
+                recorder.phase(burst).latencies.forEach((endpoint, list) ->
+                        latencies.computeIfAbsent(endpoint, e -> new LongList()).addAll(list));
+                recorder.phase(burst).errors.forEach((endpoint, count) -> errors.merge(endpoint, count, Long::sum));
+                recorder.phase(burst).outcomes.forEach((outcome, count) -> outcomes.merge(outcome, count, Long::sum));
+            }
+
+            long total = 0;
+            for (Map.Entry<String, LongList> entry : latencies.entrySet()) {
+                long[] sorted = entry.getValue().sorted();
+                total += sorted.length;
+                System.out.printf("%-22s %9d %10.0f", entry.getKey(), sorted.length, sorted.length / seconds);
+                for (double percentile : PERCENTILES) {
+                    System.out.printf(" %10.2f", percentile(sorted, percentile) / 1e6);
+                }
+                System.out.printf(" %8d%n", errors.getOrDefault(entry.getKey(), 0L));
+            }
+            System.out.printf("%-22s %9d %10.0f%n", "I alt", total, total / seconds);
+
+            long bookings = outcomes.values().stream().mapToLong(Long::longValue).sum();
+            if (bookings > 0) {
+                System.out.println("Bookingudfald:");
+                outcomes.forEach((outcome, count) ->
+                        System.out.printf("  %-26s %9d %6.1f%%%n", outcome, count, 100.0 * count / bookings));
+            }
+        }
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static int pick(ThreadLocalRandom random, int[] values, int[] weights) {
+        int total = 0;
+        for (int weight : weights) total += weight;
+        int roll = random.nextInt(total);
+        for (int i = 0; i < values.length; i++) {
+            roll -= weights[i];
+            if (roll < 0) return values[i];
+        }
+        return values[values.length - 1];
+    }
+
+    private static void awaitStart(CountDownLatch ready, long start) {
+        try {
+            ready.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long wait = start - System.nanoTime();
+        if (wait > 0) sleep(TimeUnit.NANOSECONDS.toMillis(wait));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadFactory daemonThreads() {
+        return r -> {
+            Thread thread = new Thread(r, "load-http");
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Målinger fra én klienttråd, så der ikke deles noget under kørslen.
+     */
+    private static final class Recorder {
+        private final Phase burst = new Phase();
+        private final Phase steady = new Phase();
+
+        Phase phase(boolean isBurst) {
+            return isBurst ? burst : steady;
+        }
+
+        void latency(boolean isBurst, String endpoint, long nanos) {
+            phase(isBurst).latencies.computeIfAbsent(endpoint, e -> new LongList()).add(nanos);
+        }
+
+        void error(boolean isBurst, String endpoint) {
+            phase(isBurst).errors.merge(endpoint, 1L, Long::sum);
+        }
+
+        void outcome(boolean isBurst, String outcome) {
+            phase(isBurst).outcomes.merge(outcome, 1L, Long::sum);
+        }
+    }
+
+    private static final class Phase {
+        final Map<String, LongList> latencies = new HashMap<>();
+        final Map<String, Long> errors = new HashMap<>();
+        final Map<String, Long> outcomes = new HashMap<>();
+    }
+
+    private static final class LongList {
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) values = Arrays.copyOf(values, size << 1);
+            values[size++] = value;
+        }
+
+        void addAll(LongList other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.values[i]);
+            }
+        }
+
+        long[] sorted() {
+            long[] copy = Arrays.copyOf(values, size);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+}